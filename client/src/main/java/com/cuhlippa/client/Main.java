@@ -3,6 +3,7 @@ package com.cuhlippa.client;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import org.springframework.boot.SpringApplication;
+import java.lang.management.ManagementFactory;
 import java.util.concurrent.CompletableFuture;
 
 import com.cuhlippa.client.clipboard.ClipboardManager;
@@ -48,7 +49,10 @@ public class Main {
         }
         SettingsManager.loadSettings();
         Settings settings = SettingsManager.getSettings();
-        LocalDatabase db = new LocalDatabase(demoMode); // Pass demo mode flag to database// Create appropriate clipboard manager based on mode
+        LocalDatabase db = new LocalDatabase(demoMode); // Pass demo mode flag to database
+        db.configureCompression(settings.getCompression());
+        db.configureArchive(settings.getArchiveAfterDays());
+        // Create appropriate clipboard manager based on mode
         if (demoMode) {
             DemoClipboardManager cm = new DemoClipboardManager(db, settings, demoDeviceName);
             System.out.println("🎬 DEMO MODE: Starting as '" + demoDeviceName + "'");
@@ -56,6 +60,7 @@ public class Main {
             ClipboardUI ui = new ClipboardUI(db, settings);            
             ui.setDemoMode(true, demoDeviceName);
             ui.setDemoClipboardManager(cm); // Pass the demo clipboard manager to UI
+            ui.setOnFirstPaint(() -> onFirstPaint(db));
             
             DemoSyncManager demoSyncManager = new DemoSyncManager(db, demoDeviceName);
             
@@ -73,6 +78,7 @@ public class Main {
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutting down...");
                 demoSyncManager.shutdown();
+                db.close();
                 running = false;
             }));
             
@@ -92,6 +98,7 @@ public class Main {
             ClipboardManager cm = new ClipboardManager(db, settings);
             
             ClipboardUI ui = new ClipboardUI(db, settings);
+            ui.setOnFirstPaint(() -> onFirstPaint(db));
             SyncManager syncManager = new SyncManager(db, settings);
 
             startEmbeddedServerIfNeeded();
@@ -111,6 +118,7 @@ public class Main {
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutting down...");
                 syncManager.shutdown();
+                db.close();
                 running = false;
             }));
             
@@ -124,7 +132,17 @@ public class Main {
                 Thread.currentThread().interrupt();
             }
         }
-    }    
+    }
+
+    /**
+     * Report how long the app took from JVM start to the window's first paint,
+     * then start the database work that was held back to get there sooner
+     */
+    private static void onFirstPaint(LocalDatabase db) {
+        System.out.println("Cold start to first paint: " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+        db.startBackgroundWork();
+    }
+
     private static void parseArguments(String[] args) {
         int i = 0;
         while (i < args.length) {
@@ -7,8 +7,15 @@ import java.util.Set;
 import java.util.HashSet;
 
 public class ClipboardItem {
+    private static final int PREVIEW_LENGTH = 200;
+
+    private long id;
     private ItemType type;
     private byte[] content;
+    private ContentHandle contentHandle;
+    private int contentSize;
+    private String preview;
+    private byte[] thumbnail;
     private LocalDateTime timestamp;
     private String hash;
     private Set<String> tags;
@@ -18,6 +25,7 @@ public class ClipboardItem {
     public ClipboardItem(ItemType type, byte[] content, LocalDateTime timestamp, String hash, Set<String> tags, String category, boolean pinned) {
         this.type = type;
         this.content = content;
+        this.contentSize = content != null ? content.length : 0;
         this.timestamp = timestamp;
         this.hash = hash;
         this.tags = (tags != null) ? new HashSet<>(tags) : new HashSet<>();
@@ -25,14 +33,75 @@ public class ClipboardItem {
         this.pinned = pinned;
     }
 
+    /**
+     * Metadata-only item whose content stays in storage until something asks for it
+     */
+    public ClipboardItem(ItemType type, ContentHandle contentHandle, int contentSize, String preview, byte[] thumbnail,
+            LocalDateTime timestamp, String hash, Set<String> tags, String category, boolean pinned) {
+        this(type, (byte[]) null, timestamp, hash, tags, category, pinned);
+        this.contentHandle = contentHandle;
+        this.contentSize = contentSize;
+        this.preview = preview;
+        this.thumbnail = thumbnail;
+    }
+
+    /**
+     * Database row id, or 0 for items that have not been loaded from storage
+     */
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public ItemType getType() {
         return type;
     }
 
+    /**
+     * The item bytes. For items loaded as metadata this fetches them from storage
+     * on every call, so callers should hold on to the result rather than call again.
+     */
     public byte[] getContent() {
+        if (content == null && contentHandle != null) {
+            return contentHandle.load();
+        }
         return content;
     }
 
+    public int getContentSize() {
+        return contentSize;
+    }
+
+    /**
+     * Short text shown in lists; null for images
+     */
+    public String getPreview() {
+        if (preview == null && content != null && type != ItemType.IMAGE) {
+            preview = createPreview(content);
+        }
+        return preview;
+    }
+
+    /**
+     * Small PNG rendition of an image item, or null if none was stored
+     */
+    public byte[] getThumbnail() {
+        return thumbnail;
+    }
+
+    public void setThumbnail(byte[] thumbnail) {
+        this.thumbnail = thumbnail;
+    }
+
+    public static String createPreview(byte[] content) {
+        // Decode only enough bytes to cover the preview, even for huge pastes
+        String text = new String(content, 0, Math.min(content.length, PREVIEW_LENGTH * 4));
+        return text.length() > PREVIEW_LENGTH ? text.substring(0, PREVIEW_LENGTH) : text;
+    }
+
     public LocalDateTime getTimestamp() {
         return timestamp;
     }
@@ -100,19 +169,19 @@ public class ClipboardItem {
 
     @Override
     public String toString() {
-        String preview;
+        String text;
         if (type == ItemType.IMAGE) {
-            preview = "[IMAGE - " + content.length + " bytes]";
+            text = "[IMAGE - " + contentSize + " bytes]";
         } else {
-            String text = new String(content);
-            if (text.length() > 50) {
-                preview = text.substring(0, 50) + "...";
+            String full = getPreview() != null ? getPreview() : "";
+            if (full.length() > 50) {
+                text = full.substring(0, 50) + "...";
             } else {
-                preview = text;
+                text = full;
             }
-            preview = preview.replace("\n", " ").replace("\r", " ");
+            text = text.replace("\n", " ").replace("\r", " ");
         }
 
-        return timestamp.format(DateTimeFormatter.ofPattern("HH:mm:ss")) + " - " + preview;
+        return timestamp.format(DateTimeFormatter.ofPattern("HH:mm:ss")) + " - " + text;
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.cuhlippa.client.clipboard;
 
 import com.cuhlippa.client.storage.LocalDatabase;
+import com.cuhlippa.client.storage.Thumbnails;
 import com.cuhlippa.client.config.Settings;
 import com.cuhlippa.client.exception.ClipboardHashingException;
 
@@ -22,6 +23,8 @@ import java.util.List;
 import java.util.regex.Pattern;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ClipboardManager implements ClipboardOwner, IClipboardManager {
     private final LocalDatabase db;
@@ -30,6 +33,12 @@ public class ClipboardManager implements ClipboardOwner, IClipboardManager {
     private final Settings settings;
     private static final String CATEGORY_GENERAL = "General";
     private String lastProcessedHash = null;  // Track last processed content to prevent duplicates
+    // Captures are read, encoded and hashed here rather than on the AWT thread that reports them
+    private final ExecutorService captureExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "clipboard-capture");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public ClipboardManager(LocalDatabase db, Settings settings) {
         this.db = db;
@@ -46,6 +55,12 @@ public class ClipboardManager implements ClipboardOwner, IClipboardManager {
         systemClipboard.setContents(t, this);
     }    @Override
     public void lostOwnership(Clipboard c, Transferable t) {
+        // The retries sleep, and saving compresses and writes blobs, none of
+        // which may hold up the AWT thread delivering this callback
+        captureExecutor.execute(this::captureChange);
+    }
+
+    private void captureChange() {
         // Retry clipboard processing with exponential backoff
         for (int attempt = 1; attempt <= 3; attempt++) {
             try {
@@ -84,8 +99,10 @@ public class ClipboardManager implements ClipboardOwner, IClipboardManager {
                 lastProcessedHash = hash;
                 ClipboardItem item = new ClipboardItem(ItemType.TEXT, contentBytes, LocalDateTime.now(), hash,
                         new HashSet<>(), CATEGORY_GENERAL, false);
-                db.saveItemAndUpdateHistory(item, settings);
-                notifyListeners(item);
+                if (collapseIntoNearDuplicate(item)) {
+                    return;
+                }
+                saveAndNotify(item);
                 System.out.println("Saved new text item to clipboard: " + data);
             }
             if (t != null && t.isDataFlavorSupported(DataFlavor.imageFlavor)) {
@@ -112,8 +129,12 @@ public class ClipboardManager implements ClipboardOwner, IClipboardManager {
                 lastProcessedHash = hash;
                 ClipboardItem item = new ClipboardItem(ItemType.IMAGE, contentBytes, LocalDateTime.now(), hash,
                         new HashSet<>(), CATEGORY_GENERAL, false);
-                db.saveItemAndUpdateHistory(item, settings);
-                notifyListeners(item);
+                // Scaled from the image in hand, so neither the lookup nor the save decodes the PNG again
+                item.setThumbnail(Thumbnails.createPng(bufferedImage));
+                if (collapseIntoNearDuplicate(item)) {
+                    return;
+                }
+                saveAndNotify(item);
                 System.out.println("Saved new image item to clipboard");
             }
             if (t != null && t.isDataFlavorSupported(DataFlavor.javaFileListFlavor)) {
@@ -137,8 +158,7 @@ public class ClipboardManager implements ClipboardOwner, IClipboardManager {
                 lastProcessedHash = hash;
                 ClipboardItem item = new ClipboardItem(ItemType.FILE_PATH, contentBytes, LocalDateTime.now(), hash,
                         new HashSet<>(), CATEGORY_GENERAL, false);
-                db.saveItemAndUpdateHistory(item, settings);
-                notifyListeners(item);
+                saveAndNotify(item);
                 System.out.println("Saved new file path item(s) to clipboard");
             }
         } catch (UnsupportedFlavorException | IOException e) {
@@ -146,6 +166,36 @@ public class ClipboardManager implements ClipboardOwner, IClipboardManager {
         }
     }
 
+    /**
+     * Queue the item for storage and notify listeners once it is committed,
+     * since they re-read history from the database
+     */
+    private void saveAndNotify(ClipboardItem item) {
+        db.saveItemAndUpdateHistory(item, settings).thenRun(() -> notifyListeners(item));
+    }
+
+    /**
+     * With collapsing turned on, a text or image capture that nearly matches
+     * an item already in history is neither stored nor synced; the existing
+     * item is recorded as used instead, which moves it up the frecency
+     * ranking. Returns whether the capture was collapsed.
+     */
+    private boolean collapseIntoNearDuplicate(ClipboardItem item) {
+        Settings.DedupSettings dedup = settings.getDedup();
+        if (!dedup.isCollapseNearDuplicates()) {
+            return false;
+        }
+        int maxDistance = item.getType() == ItemType.IMAGE ? dedup.getImageMaxDistance() : dedup.getTextMaxDistance();
+        List<ClipboardItem> matches = db.findNearDuplicates(item, maxDistance);
+        if (matches.isEmpty()) {
+            return false;
+        }
+        db.recordAccess(matches.get(0));
+        System.out.println("Collapsed " + item.getType().name().toLowerCase() + " capture into near-duplicate item "
+                + matches.get(0).getId());
+        return true;
+    }
+
     private String sha256(byte[] data) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
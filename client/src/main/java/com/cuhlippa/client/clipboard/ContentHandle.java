@@ -0,0 +1,10 @@
+package com.cuhlippa.client.clipboard;
+
+/**
+ * Fetches the bytes of a stored clipboard item on demand, so list views can
+ * hold item metadata without the content itself.
+ */
+@FunctionalInterface
+public interface ContentHandle {
+    byte[] load();
+}
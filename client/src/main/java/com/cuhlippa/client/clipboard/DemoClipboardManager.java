@@ -177,8 +177,8 @@ public class DemoClipboardManager implements ClipboardOwner, IClipboardManager {
             
             // Save and notify if we have a new item
             if (item != null) {
-                db.saveItemAndUpdateHistory(item, settings);
-                notifyListeners(item);
+                ClipboardItem saved = item;
+                db.saveItemAndUpdateHistory(saved, settings).thenRun(() -> notifyListeners(saved));
             }
             
         } catch (Exception e) {
@@ -6,9 +6,15 @@ import java.util.ArrayList;
 public class Settings {
     private String theme = "light";
     private int maxHistoryItems = 200;
+    // Total size of unpinned history, 0 for no limit; applies alongside maxHistoryItems
+    private long maxHistoryBytes = 1024L * 1024 * 1024;
+    // Unpinned items older than this many days move to the monthly archive files; off (0) unless the user opts in
+    private int archiveAfterDays = 0;
     private int thumbnailSize = 64;
     private List<String> ignorePatterns = new ArrayList<>();
     private SyncSettings sync = new SyncSettings();
+    private CompressionSettings compression = new CompressionSettings();
+    private DedupSettings dedup = new DedupSettings();
     
     public static class SyncSettings {
         private boolean enabled = false;
@@ -25,12 +31,53 @@ public class Settings {
         public void setEncryptionKey(String encryptionKey) { this.encryptionKey = encryptionKey; }
     }
 
+    public static class CompressionSettings {
+        // "deflate", or "none" to store new items uncompressed
+        private String codec = "deflate";
+        private int thresholdBytes = 16 * 1024;
+        // Text items larger than this are stored as chunks shared between similar items, 0 to store them whole
+        private int chunkThresholdBytes = 16 * 1024;
+
+        public String getCodec() { return codec; }
+        public void setCodec(String codec) { this.codec = codec; }
+
+        public int getThresholdBytes() { return thresholdBytes; }
+        public void setThresholdBytes(int thresholdBytes) { this.thresholdBytes = thresholdBytes; }
+
+        public int getChunkThresholdBytes() { return chunkThresholdBytes; }
+        public void setChunkThresholdBytes(int chunkThresholdBytes) { this.chunkThresholdBytes = chunkThresholdBytes; }
+    }
+
+    public static class DedupSettings {
+        // Keep a capture that nearly matches an item already in history as that item instead of a new one
+        private boolean collapseNearDuplicates = false;
+        // Text captures whose SimHash differs from an item's in at most this many bits count as near duplicates
+        private int textMaxDistance = 3;
+        // Image captures whose thumbnail dHash differs from an item's in at most this many bits count as duplicates
+        private int imageMaxDistance = 3;
+
+        public boolean isCollapseNearDuplicates() { return collapseNearDuplicates; }
+        public void setCollapseNearDuplicates(boolean collapseNearDuplicates) { this.collapseNearDuplicates = collapseNearDuplicates; }
+
+        public int getTextMaxDistance() { return textMaxDistance; }
+        public void setTextMaxDistance(int textMaxDistance) { this.textMaxDistance = textMaxDistance; }
+
+        public int getImageMaxDistance() { return imageMaxDistance; }
+        public void setImageMaxDistance(int imageMaxDistance) { this.imageMaxDistance = imageMaxDistance; }
+    }
+
     public String getTheme() { return theme; }
     public void setTheme(String theme) { this.theme = theme; }
 
     public int getMaxHistoryItems() { return maxHistoryItems; }
     public void setMaxHistoryItems(int maxHistoryItems) { this.maxHistoryItems = maxHistoryItems; }
 
+    public long getMaxHistoryBytes() { return maxHistoryBytes; }
+    public void setMaxHistoryBytes(long maxHistoryBytes) { this.maxHistoryBytes = maxHistoryBytes; }
+
+    public int getArchiveAfterDays() { return archiveAfterDays; }
+    public void setArchiveAfterDays(int archiveAfterDays) { this.archiveAfterDays = archiveAfterDays; }
+
     public int getThumbnailSize() { return thumbnailSize; }
     public void setThumbnailSize(int thumbnailSize) {this.thumbnailSize = thumbnailSize; }
 
@@ -39,4 +86,10 @@ public class Settings {
 
     public SyncSettings getSync() { return sync; }
     public void setSync(SyncSettings sync) { this.sync = sync; }
+
+    public CompressionSettings getCompression() { return compression; }
+    public void setCompression(CompressionSettings compression) { this.compression = compression; }
+
+    public DedupSettings getDedup() { return dedup; }
+    public void setDedup(DedupSettings dedup) { this.dedup = dedup; }
 }
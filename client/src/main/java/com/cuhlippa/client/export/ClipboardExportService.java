@@ -3,13 +3,19 @@ package com.cuhlippa.client.export;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.cuhlippa.client.clipboard.ClipboardItem;
+import com.cuhlippa.client.storage.BatchOptions;
+import com.cuhlippa.client.storage.BatchResult;
+import com.cuhlippa.client.storage.HistoryFilter;
 import com.cuhlippa.client.storage.LocalDatabase;
 
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class ClipboardExportService {
     private final ObjectMapper objectMapper;
@@ -39,30 +45,30 @@ public class ClipboardExportService {
         ClipboardExportData exportData = objectMapper.readValue(file, ClipboardExportData.class);
 
         ImportResult result = new ImportResult();
-        int imported = 0;
-        int skipped = 0;
         int errors = 0;
+        List<ClipboardItem> items = new ArrayList<>();
 
         for (ExportClipboardItem exportItem : exportData.getItems()) {
             try {
-                ClipboardItem item = exportItem.toClipboardItem();
-    
-                if (options.isSkipDuplicates() && db.itemExistsByHash(item.getHash())) {
-                    skipped++;
-                    continue;
-                }
-
-                db.saveItem(item);
-                imported++;
+                items.add(exportItem.toClipboardItem());
             } catch (Exception e) {
                 errors++;
                 result.addError("Failed to import item: " + e.getMessage());
             }
         }
 
-        result.setImported(imported);
-        result.setSkipped(skipped);
-        result.setErrors(errors);
+        // Items already stored are never stored twice; unless duplicates are
+        // skipped, they pick up the imported item's tags
+        BatchOptions batchOptions = new BatchOptions();
+        batchOptions.setMergeTagsOnConflict(!options.isSkipDuplicates() && options.isMergeTags());
+        BatchResult saved = db.saveItems(items, batchOptions);
+        for (String error : saved.getErrorMessages()) {
+            result.addError("Failed to import item: " + error);
+        }
+
+        result.setImported(saved.count(BatchResult.Outcome.INSERTED) + saved.count(BatchResult.Outcome.MERGED));
+        result.setSkipped(saved.count(BatchResult.Outcome.CONFLICT));
+        result.setErrors(errors + saved.count(BatchResult.Outcome.FAILED));
         result.setTotalProcessed(exportData.getTotalItems());
 
         return result;
@@ -78,12 +84,31 @@ public class ClipboardExportService {
         } else {
             items = db.getAllItems();
         }
+        if (options.isIncludeArchived()) {
+            items = withArchivedItems(items, options);
+        }
 
         return items.stream()
             .filter(item -> shouldIncludeItem(item, options))
             .toList();
     }
 
+    private List<ClipboardItem> withArchivedItems(List<ClipboardItem> liveItems, ExportOptions options) {
+        HistoryFilter filter = new HistoryFilter();
+        filter.setCategory(options.getCategory());
+        filter.setTag(options.getTag());
+        List<ClipboardItem> items = new ArrayList<>(liveItems);
+        Set<String> hashes = new HashSet<>();
+        liveItems.forEach(item -> hashes.add(item.getHash()));
+        for (ClipboardItem item : db.getArchivedItems(filter)) {
+            // An item archived and captured again is exported once, as the live one
+            if (hashes.add(item.getHash())) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
     private boolean shouldIncludeItem(ClipboardItem item, ExportOptions options) {
         if (item == null || item.getType() == null) {
             return false;
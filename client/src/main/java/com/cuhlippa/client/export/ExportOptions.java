@@ -6,6 +6,7 @@ public class ExportOptions {
     private boolean includeImages = true;
     private boolean includeText = true;
     private boolean includeFiles = true;
+    private boolean includeArchived = true;
 
     public String getCategory() {
         return category;
@@ -47,4 +48,15 @@ public class ExportOptions {
         this.includeFiles = includeFiles;
     }
 
+    /**
+     * Whether items moved to the archive files are exported along with the live history
+     */
+    public boolean isIncludeArchived() {
+        return includeArchived;
+    }
+
+    public void setIncludeArchived(boolean includeArchived) {
+        this.includeArchived = includeArchived;
+    }
+
 }
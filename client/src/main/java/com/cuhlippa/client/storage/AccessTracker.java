@@ -0,0 +1,139 @@
+package com.cuhlippa.client.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Collects item accesses in memory and hands them to the database in
+ * periodic batches, so reusing an item costs a map update rather than a
+ * write. Accesses to the same item between flushes collapse into one entry.
+ *
+ * Frecency is an exponentially decayed access count with a one week half
+ * life, kept as its logarithm: each access at time t adds t / halfLife * ln 2,
+ * combined with log-sum-exp. Decay then never has to be applied to stored
+ * scores, since it would scale them all alike, and the stored value sorts the
+ * same as the decayed count at any moment, so an index on it serves top-N
+ * queries directly.
+ */
+public class AccessTracker implements AutoCloseable {
+    static final double HALF_LIFE_MILLIS = 7 * 24 * 60 * 60 * 1000.0;
+    private static final long FLUSH_INTERVAL_SECONDS = 10;
+    private static final long SHUTDOWN_WAIT_SECONDS = 10;
+
+    /**
+     * Accesses to one item since the last flush
+     */
+    static final class PendingAccess {
+        int count;
+        long lastAccessed;
+        double frecency = Double.NEGATIVE_INFINITY;
+
+        void add(long at) {
+            count++;
+            lastAccessed = Math.max(lastAccessed, at);
+            frecency = combine(frecency, score(at));
+        }
+    }
+
+    private final Map<String, PendingAccess> pending = new ConcurrentHashMap<>();
+    private final Consumer<Map<String, PendingAccess>> flusher;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "access-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder accesses = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedItems = new LongAdder();
+
+    /**
+     * The flusher receives each batch, keyed by item hash, and is expected to
+     * write it out in a single update
+     */
+    AccessTracker(Consumer<Map<String, PendingAccess>> flusher) {
+        this.flusher = flusher;
+    }
+
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    public void record(String hash, long atMillis) {
+        // One atomic compute, so a flush taking the entry away cannot lose this access
+        pending.compute(hash, (h, access) -> {
+            PendingAccess updated = access != null ? access : new PendingAccess();
+            updated.add(atMillis);
+            return updated;
+        });
+        accesses.increment();
+    }
+
+    /**
+     * Hand everything collected so far to the flusher
+     */
+    void flush() {
+        Map<String, PendingAccess> batch = new HashMap<>();
+        for (String hash : pending.keySet()) {
+            PendingAccess access = pending.remove(hash);
+            if (access != null) {
+                batch.put(hash, access);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            flusher.accept(batch);
+            flushes.increment();
+            flushedItems.add(batch.size());
+        } catch (RuntimeException e) {
+            System.err.println("Failed to flush item accesses: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Log-scale score of a single access at the given time
+     */
+    static double score(long atMillis) {
+        return atMillis / HALF_LIFE_MILLIS * Math.log(2);
+    }
+
+    /**
+     * log(e^a + e^b), without overflowing on the large exponents scores have
+     */
+    static double combine(double a, double b) {
+        if (a == Double.NEGATIVE_INFINITY) {
+            return b;
+        }
+        double max = Math.max(a, b);
+        return max + Math.log1p(Math.exp(-Math.abs(a - b)));
+    }
+
+    /**
+     * Stop the periodic flush and write out what is still pending
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d accesses written as %d item updates in %d flushes", accesses.sum(),
+                flushedItems.sum(), flushes.sum());
+    }
+}
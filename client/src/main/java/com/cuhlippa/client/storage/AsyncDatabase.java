@@ -0,0 +1,144 @@
+package com.cuhlippa.client.storage;
+
+import com.cuhlippa.client.clipboard.ClipboardItem;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * CompletableFuture versions of the {@link LocalDatabase} calls the UI makes,
+ * so the Swing event thread never waits on SQLite, not even for the five
+ * seconds a connection may spend in busy_timeout behind another writer.
+ *
+ * Edits run one at a time on their own thread, in the order they were made,
+ * so a pin followed by a delete never lands the other way round. Reads run on
+ * a separate pair of threads and are not held up by edits. Futures complete
+ * on those threads; UI code hands the result back to the event thread, e.g.
+ * with whenCompleteAsync(..., SwingUtilities::invokeLater).
+ */
+public class AsyncDatabase implements AutoCloseable {
+    private static final int READ_THREADS = 2;
+    private static final long SHUTDOWN_WAIT_SECONDS = 10;
+
+    private final LocalDatabase db;
+    private final ExecutorService edits = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "db-async-edit");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService reads;
+
+    private final LongAdder editCount = new LongAdder();
+    private final LongAdder failedEdits = new LongAdder();
+    private final LongAdder readCount = new LongAdder();
+
+    AsyncDatabase(LocalDatabase db) {
+        this.db = db;
+        AtomicInteger threads = new AtomicInteger();
+        this.reads = Executors.newFixedThreadPool(READ_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "db-async-read-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<Boolean> deleteItemByHash(String hash) {
+        return edit(() -> db.deleteItemByHash(hash));
+    }
+
+    public CompletableFuture<Boolean> deleteAllItems() {
+        return edit(db::deleteAllItems);
+    }
+
+    public CompletableFuture<Boolean> toggleItemPin(String hash) {
+        return edit(() -> db.toggleItemPin(hash));
+    }
+
+    /**
+     * Reads the item's category and tags when the edit runs, so the caller
+     * must not change them again until the future completes
+     */
+    public CompletableFuture<Boolean> updateTagsAndCategory(ClipboardItem item) {
+        return edit(() -> db.updateTagsAndCategory(item));
+    }
+
+    public CompletableFuture<HistoryPage> getItemsPage(long afterId, int limit, HistoryFilter filter) {
+        return read(() -> db.getItemsPage(afterId, limit, filter));
+    }
+
+    public CompletableFuture<Set<String>> getAllCategories() {
+        return read(db::getAllCategories);
+    }
+
+    public CompletableFuture<Set<String>> getAllTags() {
+        return read(db::getAllTags);
+    }
+
+    public CompletableFuture<Long> getChangeSeq() {
+        return read(db::getChangeSeq);
+    }
+
+    public CompletableFuture<ChangeSet> changesSince(long seq, int limit) {
+        return read(() -> db.changesSince(seq, limit));
+    }
+
+    public CompletableFuture<ClipboardItem> getItemByHash(String hash) {
+        return read(() -> db.getItemByHash(hash));
+    }
+
+    /**
+     * Load an item's content, which for a large item means reading and
+     * decompressing its blob or chunks, and convert it on the same read
+     * thread, so decoding an image stays off the event thread as well
+     */
+    public <T> CompletableFuture<T> loadContent(ClipboardItem item, Function<byte[], T> convert) {
+        return read(() -> convert.apply(item.getContent()));
+    }
+
+    /**
+     * The LocalDatabase methods report failure by returning false rather than
+     * throwing, so a future completing with false is a failed edit
+     */
+    private CompletableFuture<Boolean> edit(Supplier<Boolean> work) {
+        editCount.increment();
+        return CompletableFuture.supplyAsync(work, edits).whenComplete((succeeded, e) -> {
+            if (e != null || !Boolean.TRUE.equals(succeeded)) {
+                failedEdits.increment();
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> read(Supplier<T> work) {
+        readCount.increment();
+        return CompletableFuture.supplyAsync(work, reads);
+    }
+
+    /**
+     * Finish the edits already submitted, so none is lost at shutdown, and
+     * drop pending reads
+     */
+    @Override
+    public void close() {
+        reads.shutdownNow();
+        edits.shutdown();
+        try {
+            if (!edits.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Gave up waiting for edits still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d edits (%d failed), %d reads", editCount.sum(), failedEdits.sum(), readCount.sum());
+    }
+}
@@ -0,0 +1,47 @@
+package com.cuhlippa.client.storage;
+
+/**
+ * How {@link LocalDatabase#saveItems} writes a large set of items
+ */
+public class BatchOptions {
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int historyLimit = 0;
+    private boolean mergeTagsOnConflict = false;
+
+    /**
+     * Items written per transaction. Larger chunks commit less often but hold
+     * the writer longer, delaying captures queued behind them.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * History limit to enforce once every chunk is in, or 0 to leave the history as it is
+     */
+    public int getHistoryLimit() {
+        return historyLimit;
+    }
+
+    public void setHistoryLimit(int historyLimit) {
+        this.historyLimit = historyLimit;
+    }
+
+    /**
+     * Whether an item that is already stored gets the incoming item's tags
+     * added to its own, rather than being left untouched
+     */
+    public boolean isMergeTagsOnConflict() {
+        return mergeTagsOnConflict;
+    }
+
+    public void setMergeTagsOnConflict(boolean mergeTagsOnConflict) {
+        this.mergeTagsOnConflict = mergeTagsOnConflict;
+    }
+}
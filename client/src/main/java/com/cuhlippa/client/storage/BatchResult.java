@@ -0,0 +1,57 @@
+package com.cuhlippa.client.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What happened to each item passed to {@link LocalDatabase#saveItems}, in the order given
+ */
+public class BatchResult {
+    public enum Outcome {
+        /** Stored as a new item */
+        INSERTED,
+        /** Already stored; its tags were merged into the existing item */
+        MERGED,
+        /** Already stored and left as it was */
+        CONFLICT,
+        /** Not stored, see {@link #getErrorMessages()} */
+        FAILED
+    }
+
+    private final List<Outcome> outcomes = new ArrayList<>();
+    private final List<String> errorMessages = new ArrayList<>();
+
+    void add(Outcome outcome) {
+        outcomes.add(outcome);
+    }
+
+    void addFailure(String message) {
+        outcomes.add(Outcome.FAILED);
+        errorMessages.add(message);
+    }
+
+    public List<Outcome> getOutcomes() {
+        return Collections.unmodifiableList(outcomes);
+    }
+
+    public int count(Outcome outcome) {
+        int count = 0;
+        for (Outcome o : outcomes) {
+            if (o == outcome) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public List<String> getErrorMessages() {
+        return Collections.unmodifiableList(errorMessages);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d inserted, %d merged, %d conflicts, %d failed", count(Outcome.INSERTED),
+                count(Outcome.MERGED), count(Outcome.CONFLICT), count(Outcome.FAILED));
+    }
+}
@@ -0,0 +1,203 @@
+package com.cuhlippa.client.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store for clipboard payloads too large to keep inline in
+ * the database. Each payload lives in its own file named by its SHA-256 hash,
+ * sharded into two directory levels (ab/cd/abcd...) so no directory grows huge.
+ * Because the name is the content hash, writing the same payload twice is a no-op.
+ *
+ * Item hashes of synced and imported items come from outside and are not
+ * recomputed, so only names of the form a local hash takes are accepted:
+ * 64 lowercase hex digits, optionally followed by a codec suffix.
+ */
+public class BlobStore {
+    /** Payloads larger than this are spilled to a file instead of the content column */
+    public static final int SPILL_THRESHOLD_BYTES = 100 * 1024;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Pattern VALID_NAME = Pattern.compile("[0-9a-f]{64}(\\.[a-z0-9]+)?");
+
+    private final Path root;
+
+    public BlobStore(Path root) {
+        this.root = root;
+    }
+
+    public static boolean shouldSpill(byte[] content) {
+        return content.length > SPILL_THRESHOLD_BYTES;
+    }
+
+    /**
+     * Whether a blob can be stored under this name (see PayloadCompression.blobName)
+     */
+    public static boolean isValidName(String name) {
+        return name != null && VALID_NAME.matcher(name).matches();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Write the payload under its hash. The file is written to a temp name,
+     * flushed to disk and then renamed, so a reader never sees a partial blob.
+     */
+    public void write(String hash, byte[] content) throws IOException {
+        Path target = pathFor(hash);
+        if (Files.exists(target)) {
+            return;
+        }
+
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), hash, TEMP_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Read a payload back through a memory-mapped channel
+     */
+    public byte[] read(String hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(pathFor(hash), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Blob too large to load: " + hash);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] content = new byte[(int) size];
+            mapped.get(content);
+            return content;
+        }
+    }
+
+    public boolean exists(String hash) {
+        try {
+            return Files.exists(pathFor(hash));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Delete the blobs for the given hashes. Missing files are ignored, so this
+     * is safe to call with hashes of rows that were stored inline.
+     */
+    public int delete(Collection<String> hashes) {
+        int deleted = 0;
+        for (String hash : hashes) {
+            try {
+                if (Files.deleteIfExists(pathFor(hash))) {
+                    deleted++;
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to delete blob " + hash + ": " + e.getMessage());
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Names of the stored blobs, for finding those no row references any more
+     * after a crash between a database commit and the matching file operation
+     */
+    public List<String> list() {
+        List<String> names = new ArrayList<>();
+        for (Path file : walk()) {
+            String name = file.getFileName().toString();
+            if (isValidName(name)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Delete temp files left by interrupted writes
+     */
+    public int deleteTempFiles() {
+        int deleted = 0;
+        for (Path file : walk()) {
+            if (!file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(file);
+                deleted++;
+            } catch (IOException e) {
+                System.err.println("Failed to delete blob " + file + ": " + e.getMessage());
+            }
+        }
+        return deleted;
+    }
+
+    private List<Path> walk() {
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.walk(root, 3)) {
+            return files.filter(Files::isRegularFile).toList();
+        } catch (IOException e) {
+            System.err.println("Failed to scan blob store: " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Read a blob written before names were checked, for moving its content
+     * back inline. Only files inside the store are read. The file is left in
+     * place, since the row still points at it until the move commits.
+     */
+    byte[] readLegacy(String name) throws IOException {
+        if (name == null || name.length() < 4) {
+            throw new IOException("Invalid blob name: " + name);
+        }
+        return Files.readAllBytes(resolve(name));
+    }
+
+    private Path pathFor(String name) throws IOException {
+        if (!isValidName(name)) {
+            throw new IOException("Invalid blob name: " + name);
+        }
+        return resolve(name);
+    }
+
+    private Path resolve(String name) throws IOException {
+        Path base = root.toAbsolutePath().normalize();
+        Path shard = base.resolve(name.substring(0, 2)).resolve(name.substring(2, 4)).normalize();
+        Path file = shard.resolve(name).normalize();
+        Path parent = shard.getParent();
+        if (parent == null || !base.equals(parent.getParent()) || !shard.equals(file.getParent())) {
+            throw new IOException("Blob name resolves outside the store: " + name);
+        }
+        return file;
+    }
+}
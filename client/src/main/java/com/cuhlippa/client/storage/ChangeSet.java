@@ -0,0 +1,92 @@
+package com.cuhlippa.client.storage;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Changes to the history after a given sequence number, oldest first, as
+ * returned by {@link LocalDatabase#changesSince}.
+ *
+ * The change log keeps only the latest change per item, so an item inserted
+ * and then tagged shows up once, as an update. Anything other than a delete
+ * therefore means "read the item's current state", whether or not the
+ * consumer has seen it before.
+ */
+public class ChangeSet {
+    public enum ChangeType {
+        INSERT,
+        /** Category or tags changed */
+        UPDATE,
+        PIN,
+        DELETE
+    }
+
+    /**
+     * The latest change to one item
+     */
+    public static class Change {
+        private final long seq;
+        private final String hash;
+        private final ChangeType type;
+
+        Change(long seq, String hash, ChangeType type) {
+            this.seq = seq;
+            this.hash = hash;
+            this.type = type;
+        }
+
+        public long getSeq() { return seq; }
+        public String getHash() { return hash; }
+        public ChangeType getType() { return type; }
+
+        @Override
+        public String toString() {
+            return seq + " " + type + " " + hash;
+        }
+    }
+
+    private final List<Change> changes;
+    private final long lastSeq;
+    private final boolean hasMore;
+    private final boolean resetRequired;
+
+    ChangeSet(List<Change> changes, long lastSeq, boolean hasMore, boolean resetRequired) {
+        this.changes = changes;
+        this.lastSeq = lastSeq;
+        this.hasMore = hasMore;
+        this.resetRequired = resetRequired;
+    }
+
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Sequence number to pass to the next call
+     */
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Whether more changes follow beyond the requested limit
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * Deletes after the requested sequence number have already been pruned
+     * from the log, so the changes cannot be replayed. The consumer has to
+     * reload everything and carry on from {@link #getLastSeq()}.
+     */
+    public boolean isResetRequired() {
+        return resetRequired;
+    }
+
+    @Override
+    public String toString() {
+        return resetRequired ? "reset required at " + lastSeq
+                : String.format("%d changes up to %d%s", changes.size(), lastSeq, hasMore ? ", more follow" : "");
+    }
+}
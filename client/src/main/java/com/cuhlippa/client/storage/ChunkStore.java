@@ -0,0 +1,260 @@
+package com.cuhlippa.client.storage;
+
+import com.cuhlippa.client.clipboard.ItemType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stores large text items as a list of content-defined chunks. Each distinct
+ * chunk is kept once in content_chunks and shared by every item containing
+ * it, so the tenth copy of a config block or stack trace with a small edit
+ * costs the chunks around the edit rather than the whole text.
+ *
+ * Boundaries are cut where a Gear rolling hash, which covers the last 64
+ * bytes, has its top bits clear. They therefore depend only on nearby
+ * content: an edit moves the boundaries next to it and leaves the rest in
+ * place. Chunks are between MIN_CHUNK_BYTES and MAX_CHUNK_BYTES, about 2 KiB
+ * on average, and each is compressed on its own. Chunks that small are
+ * shared between copies edited in several places, at some cost in
+ * compression ratio and read speed; see ChunkedStorageBenchmark.
+ *
+ * item_chunks lists an item's chunks in order. Triggers delete an item's
+ * list with its row and a chunk with the last list that uses it, so every
+ * path that deletes rows cleans up after itself.
+ */
+final class ChunkStore {
+    static final int DEFAULT_THRESHOLD_BYTES = 16 * 1024;
+    static final int MIN_CHUNK_BYTES = 1024;
+    static final int MAX_CHUNK_BYTES = 16 * 1024;
+    // A boundary falls where the top 10 bits are clear, about every 1 KiB past the minimum
+    private static final long BOUNDARY_MASK = -1L << (64 - 10);
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed: boundaries must fall in the same places in every run for chunks to be shared
+        Random random = new Random(0x63686e6b);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private static final String SQL_FIND_CHUNK = "SELECT id FROM content_chunks WHERE hash = ?";
+    private static final String SQL_INSERT_CHUNK =
+            "INSERT INTO content_chunks(hash, codec, size, data) VALUES (?, ?, ?, ?) RETURNING id";
+    private static final String SQL_LINK_CHUNK = "INSERT INTO item_chunks(item_id, position, chunk_id) VALUES (?, ?, ?)";
+    static final String SQL_READ_BY_ID = """
+            SELECT ch.data, ch.codec FROM item_chunks ic JOIN content_chunks ch ON ch.id = ic.chunk_id
+            WHERE ic.item_id = ? ORDER BY ic.position
+            """;
+    static final String SQL_READ_BY_HASH = """
+            SELECT ch.data, ch.codec FROM clipboard c
+            JOIN item_chunks ic ON ic.item_id = c.id
+            JOIN content_chunks ch ON ch.id = ic.chunk_id
+            WHERE c.hash = ? ORDER BY ic.position
+            """;
+
+    /**
+     * One chunk of an item's content, by position in the content array
+     */
+    static final class Chunk {
+        final int offset;
+        final int length;
+        final byte[] hash;
+        // Null when the chunk was already stored as the item was staged
+        PayloadCompression.Encoded encoded;
+
+        Chunk(int offset, int length, byte[] hash) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    private final PayloadCompression compression;
+    private volatile int thresholdBytes = DEFAULT_THRESHOLD_BYTES;
+
+    private final LongAdder chunkedItems = new LongAdder();
+    private final LongAdder chunkRefs = new LongAdder();
+    private final LongAdder sharedChunks = new LongAdder();
+    private final LongAdder originalBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+
+    ChunkStore(PayloadCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Text items larger than this are chunked from now on; 0 stores every item whole
+     */
+    void configure(int thresholdBytes) {
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    boolean shouldChunk(ItemType type, byte[] content) {
+        int threshold = thresholdBytes;
+        return threshold > 0 && type == ItemType.TEXT && content.length > threshold;
+    }
+
+    /**
+     * Cut the content at content-defined boundaries and hash each chunk
+     */
+    static List<Chunk> split(byte[] content) {
+        MessageDigest digest = sha256();
+        List<Chunk> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < content.length) {
+            int end = nextBoundary(content, start);
+            digest.update(content, start, end - start);
+            chunks.add(new Chunk(start, end - start, digest.digest()));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static int nextBoundary(byte[] content, int start) {
+        int limit = Math.min(content.length, start + MAX_CHUNK_BYTES);
+        int i = Math.min(limit, start + MIN_CHUNK_BYTES);
+        long hash = 0;
+        // The hash only reaches back 64 bytes, so warming it up over those is enough
+        for (int j = Math.max(start, i - 64); j < i; j++) {
+            hash = (hash << 1) + GEAR[content[j] & 0xff];
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[content[i] & 0xff];
+            if ((hash & BOUNDARY_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Hashes of the given chunks already in content_chunks
+     */
+    static Set<String> findStored(PooledConnection conn, List<Chunk> chunks) throws SQLException {
+        Set<String> stored = new HashSet<>();
+        PreparedStatement find = conn.prepare(SQL_FIND_CHUNK);
+        for (Chunk chunk : chunks) {
+            find.setBytes(1, chunk.hash);
+            try (ResultSet rs = find.executeQuery()) {
+                if (rs.next()) {
+                    stored.add(HashKeys.toHex(chunk.hash));
+                }
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Compress the chunks that are not stored yet. Runs while the item is
+     * staged, off the writer thread; chunks deleted in the meantime are
+     * compressed by {@link #write} instead.
+     */
+    void encode(byte[] content, List<Chunk> chunks, Set<String> stored) {
+        for (Chunk chunk : chunks) {
+            if (!stored.contains(HashKeys.toHex(chunk.hash))) {
+                chunk.encoded = encode(content, chunk);
+            }
+        }
+    }
+
+    private PayloadCompression.Encoded encode(byte[] content, Chunk chunk) {
+        byte[] data = new byte[chunk.length];
+        System.arraycopy(content, chunk.offset, data, 0, chunk.length);
+        return compression.encodeChunk(data);
+    }
+
+    /**
+     * Store the chunks that are new and list them all, in order, for the
+     * item just inserted. Runs in the item's transaction.
+     */
+    void write(PooledConnection conn, long itemId, byte[] content, List<Chunk> chunks) throws SQLException {
+        PreparedStatement find = conn.prepare(SQL_FIND_CHUNK);
+        PreparedStatement insert = conn.prepare(SQL_INSERT_CHUNK);
+        PreparedStatement link = conn.prepare(SQL_LINK_CHUNK);
+        link.setLong(1, itemId);
+        for (int position = 0; position < chunks.size(); position++) {
+            Chunk chunk = chunks.get(position);
+            long chunkId;
+            find.setBytes(1, chunk.hash);
+            try (ResultSet rs = find.executeQuery()) {
+                chunkId = rs.next() ? rs.getLong(1) : -1;
+            }
+            if (chunkId >= 0) {
+                sharedChunks.increment();
+            } else {
+                PayloadCompression.Encoded encoded = chunk.encoded != null ? chunk.encoded : encode(content, chunk);
+                insert.setBytes(1, chunk.hash);
+                insert.setString(2, encoded.getCodec());
+                insert.setInt(3, chunk.length);
+                insert.setBytes(4, encoded.getData());
+                try (ResultSet rs = insert.executeQuery()) {
+                    rs.next();
+                    chunkId = rs.getLong(1);
+                }
+                storedBytes.add(encoded.getData().length);
+            }
+            link.setInt(2, position);
+            link.setLong(3, chunkId);
+            link.executeUpdate();
+        }
+        chunkedItems.increment();
+        chunkRefs.add(chunks.size());
+        originalBytes.add(content.length);
+    }
+
+    /**
+     * Run a query for an item's chunks, SQL_READ_BY_ID or SQL_READ_BY_HASH
+     * with the key bound, and return them still encoded, so they can be
+     * decoded after the connection is handed back
+     */
+    static List<PayloadCompression.Encoded> read(PreparedStatement pstmt) throws SQLException {
+        List<PayloadCompression.Encoded> chunks = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                chunks.add(new PayloadCompression.Encoded(rs.getString(2), rs.getBytes(1)));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Decode an item's chunks and put its content back together
+     */
+    byte[] assemble(List<PayloadCompression.Encoded> chunks) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (PayloadCompression.Encoded chunk : chunks) {
+            content.write(compression.decode(chunk.getCodec(), chunk.getData()));
+        }
+        return content.toByteArray();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        long original = originalBytes.sum();
+        long stored = storedBytes.sum();
+        return String.format("%d items chunked into %d chunk references (%d shared), %,d -> %,d bytes (ratio %.2f)",
+                chunkedItems.sum(), chunkRefs.sum(), sharedChunks.sum(), original, stored,
+                original > 0 ? (double) stored / original : 1.0);
+    }
+}
@@ -0,0 +1,260 @@
+package com.cuhlippa.client.storage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Small SQLite connection pool: one dedicated writer connection and a few
+ * reader connections, which WAL mode lets run alongside the writer. Every
+ * connection keeps its prepared statements cached between calls.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final int DEFAULT_MAX_READERS = 3;
+    private static final long READER_WAIT_SECONDS = 30;
+
+    private final String url;
+    private final int maxReaders;
+    private final ConnectionSetup setup;
+    private final ReentrantLock writerLock = new ReentrantLock(true);
+    private final BlockingQueue<PooledConnection> idleReaders = new LinkedBlockingQueue<>();
+    private final AtomicInteger openReaders = new AtomicInteger();
+    private PooledConnection writer;
+    private volatile boolean closed = false;
+
+    private final LongAdder writerAcquisitions = new LongAdder();
+    private final LongAdder writerWaitNanos = new LongAdder();
+    private final LongAdder readerAcquisitions = new LongAdder();
+    private final LongAdder readerWaitNanos = new LongAdder();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T execute(PooledConnection conn) throws SQLException;
+    }
+
+    /**
+     * Extra per-connection setup, such as registering SQL functions, run on
+     * every connection the pool opens.
+     */
+    @FunctionalInterface
+    public interface ConnectionSetup {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    public ConnectionPool(String url) {
+        this(url, DEFAULT_MAX_READERS, connection -> {});
+    }
+
+    public ConnectionPool(String url, ConnectionSetup setup) {
+        this(url, DEFAULT_MAX_READERS, setup);
+    }
+
+    public ConnectionPool(String url, int maxReaders, ConnectionSetup setup) {
+        this.url = url;
+        this.maxReaders = Math.max(1, maxReaders);
+        this.setup = setup;
+    }
+
+    /**
+     * Run work on the writer connection inside a transaction. Nested calls from
+     * the same thread join the outer transaction.
+     */
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        long start = System.nanoTime();
+        writerLock.lock();
+        try {
+            writerWaitNanos.add(System.nanoTime() - start);
+            writerAcquisitions.increment();
+
+            PooledConnection conn = getWriter();
+            conn.beginTransaction();
+            boolean success = false;
+            try {
+                T result = work.execute(conn);
+                success = true;
+                return result;
+            } finally {
+                conn.endTransaction(success);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Run work on the writer connection in autocommit mode, for statements
+     * such as VACUUM or checkpoints that cannot run inside a transaction.
+     */
+    public <T> T writeWithoutTransaction(SqlWork<T> work) throws SQLException {
+        long start = System.nanoTime();
+        writerLock.lock();
+        try {
+            writerWaitNanos.add(System.nanoTime() - start);
+            writerAcquisitions.increment();
+            return work.execute(getWriter());
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Run read-only work on one of the reader connections.
+     */
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        PooledConnection conn = acquireReader();
+        try {
+            return work.execute(conn);
+        } finally {
+            if (closed) {
+                conn.close();
+            } else {
+                idleReaders.offer(conn);
+            }
+        }
+    }
+
+    private PooledConnection getWriter() throws SQLException {
+        ensureOpen();
+        if (writer == null) {
+            writer = open(false);
+        }
+        return writer;
+    }
+
+    private PooledConnection acquireReader() throws SQLException {
+        ensureOpen();
+        long start = System.nanoTime();
+        try {
+            PooledConnection conn = idleReaders.poll();
+            if (conn == null && openReaders.incrementAndGet() <= maxReaders) {
+                try {
+                    conn = open(true);
+                } catch (SQLException e) {
+                    openReaders.decrementAndGet();
+                    throw e;
+                }
+            } else if (conn == null) {
+                openReaders.decrementAndGet();
+                conn = idleReaders.poll(READER_WAIT_SECONDS, TimeUnit.SECONDS);
+                if (conn == null) {
+                    throw new SQLException("Timed out waiting for a database reader connection");
+                }
+            }
+            return conn;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        } finally {
+            readerWaitNanos.add(System.nanoTime() - start);
+            readerAcquisitions.increment();
+        }
+    }
+
+    private PooledConnection open(boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement stmt = connection.createStatement()) {
+            // Per-connection settings; journal_mode=WAL is persisted in the file itself
+            stmt.execute("PRAGMA busy_timeout=5000");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA cache_size=10000");
+            stmt.execute("PRAGMA temp_store=memory");
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only=1");
+            }
+            setup.apply(connection);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return new PooledConnection(connection, statementCacheHits, statementCacheMisses);
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+
+    public PoolStats getStats() {
+        return new PoolStats(
+                writerAcquisitions.sum(), writerWaitNanos.sum(),
+                readerAcquisitions.sum(), readerWaitNanos.sum(),
+                statementCacheHits.sum(), statementCacheMisses.sum(),
+                openReaders.get());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        writerLock.lock();
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        } finally {
+            writerLock.unlock();
+        }
+
+        PooledConnection conn;
+        while ((conn = idleReaders.poll()) != null) {
+            conn.close();
+        }
+    }
+
+    /**
+     * Snapshot of pool counters, used to see how much connection latency the pool saves.
+     */
+    public static class PoolStats {
+        private final long writerAcquisitions;
+        private final long writerWaitNanos;
+        private final long readerAcquisitions;
+        private final long readerWaitNanos;
+        private final long statementCacheHits;
+        private final long statementCacheMisses;
+        private final int openReaders;
+
+        PoolStats(long writerAcquisitions, long writerWaitNanos, long readerAcquisitions, long readerWaitNanos,
+                long statementCacheHits, long statementCacheMisses, int openReaders) {
+            this.writerAcquisitions = writerAcquisitions;
+            this.writerWaitNanos = writerWaitNanos;
+            this.readerAcquisitions = readerAcquisitions;
+            this.readerWaitNanos = readerWaitNanos;
+            this.statementCacheHits = statementCacheHits;
+            this.statementCacheMisses = statementCacheMisses;
+            this.openReaders = openReaders;
+        }
+
+        public long getWriterAcquisitions() { return writerAcquisitions; }
+        public long getWriterWaitNanos() { return writerWaitNanos; }
+        public long getReaderAcquisitions() { return readerAcquisitions; }
+        public long getReaderWaitNanos() { return readerWaitNanos; }
+        public long getStatementCacheHits() { return statementCacheHits; }
+        public long getStatementCacheMisses() { return statementCacheMisses; }
+        public int getOpenReaders() { return openReaders; }
+
+        public double getStatementCacheHitRate() {
+            long total = statementCacheHits + statementCacheMisses;
+            return total == 0 ? 0.0 : (double) statementCacheHits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "writer: %d acquisitions, %.1f ms waited; readers: %d acquisitions, %.1f ms waited, %d open; "
+                            + "statement cache: %d hits, %d misses (%.0f%% hit rate)",
+                    writerAcquisitions, writerWaitNanos / 1_000_000.0,
+                    readerAcquisitions, readerWaitNanos / 1_000_000.0, openReaders,
+                    statementCacheHits, statementCacheMisses, getStatementCacheHitRate() * 100);
+        }
+    }
+}
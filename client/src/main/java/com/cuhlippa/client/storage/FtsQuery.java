@@ -0,0 +1,53 @@
+package com.cuhlippa.client.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns what the user typed into an FTS5 MATCH expression. Text in double
+ * quotes is matched as an exact phrase; every other word is matched as a
+ * prefix, so "clip man" finds "clipboard manager". All terms must match.
+ * Everything is quoted before it reaches FTS5, so operators and punctuation
+ * in the input are searched for literally rather than parsed.
+ */
+public final class FtsQuery {
+    private FtsQuery() {}
+
+    /**
+     * Build the MATCH expression, or null if the input has nothing to search for
+     */
+    public static String toMatchExpression(String input) {
+        if (input == null) {
+            return null;
+        }
+
+        List<String> terms = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean inPhrase = false;
+        for (int i = 0; i < input.length(); i++) {
+            char ch = input.charAt(i);
+            if (ch == '"') {
+                addTerm(terms, word, inPhrase);
+                inPhrase = !inPhrase;
+            } else if (Character.isWhitespace(ch) && !inPhrase) {
+                addTerm(terms, word, false);
+            } else {
+                word.append(ch);
+            }
+        }
+        // An unterminated quote is treated as a phrase running to the end
+        addTerm(terms, word, inPhrase);
+
+        return terms.isEmpty() ? null : String.join(" AND ", terms);
+    }
+
+    private static void addTerm(List<String> terms, StringBuilder word, boolean phrase) {
+        String text = word.toString().trim();
+        word.setLength(0);
+        if (text.isEmpty()) {
+            return;
+        }
+        String quoted = "\"" + text.replace("\"", "\"\"") + "\"";
+        terms.add(phrase ? quoted : quoted + "*");
+    }
+}
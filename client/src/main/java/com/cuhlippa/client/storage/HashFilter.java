@@ -0,0 +1,206 @@
+package com.cuhlippa.client.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counting Bloom filter over the hashes of stored items, so a duplicate check
+ * for an item that is definitely new needs no database query. Each slot is a
+ * 4-bit counter rather than a bit, which lets deletes be taken back out.
+ *
+ * The filter may say "maybe" for a hash that is not stored, but never "no" for
+ * one that is, as long as every hash is added before its insert commits and
+ * removed only after its delete has. A counter that reaches 15 stays there, so
+ * it can only err towards "maybe" as well.
+ */
+public class HashFilter {
+    private static final int MAGIC = 0x43484246; // "CHBF"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HASH_FUNCTIONS = 7;
+    // With 7 hash functions, 10 counters per item keeps false positives near 1% at capacity
+    private static final int SLOTS_PER_ITEM = 10;
+    private static final int MIN_CAPACITY = 16 * 1024;
+    private static final int MAX_COUNT = 15;
+
+    private final int capacity;
+    private final long slots;
+    private final byte[] counters;
+    private long count;
+
+    private final LongAdder definitelyNew = new LongAdder();
+    private final LongAdder maybePresent = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * Filter sized for the given number of items, with room to grow to twice that
+     */
+    public static HashFilter forItems(long items) {
+        return new HashFilter((int) Math.min(Integer.MAX_VALUE / SLOTS_PER_ITEM, Math.max(MIN_CAPACITY, items * 2)));
+    }
+
+    private HashFilter(int capacity) {
+        this(capacity, new byte[(int) ((capacity * (long) SLOTS_PER_ITEM + 1) / 2)], 0);
+    }
+
+    private HashFilter(int capacity, byte[] counters, long count) {
+        this.capacity = capacity;
+        this.slots = counters.length * 2L;
+        this.counters = counters;
+        this.count = count;
+    }
+
+    public synchronized void add(String hash) {
+        long[] h = hashes(hash);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            long slot = slot(h, i);
+            int value = get(slot);
+            if (value < MAX_COUNT) {
+                set(slot, value + 1);
+            }
+        }
+        count++;
+    }
+
+    public synchronized void remove(String hash) {
+        long[] h = hashes(hash);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            long slot = slot(h, i);
+            int value = get(slot);
+            // A saturated counter no longer knows how many items share it
+            if (value > 0 && value < MAX_COUNT) {
+                set(slot, value - 1);
+            }
+        }
+        count = Math.max(0, count - 1);
+    }
+
+    /**
+     * False means the hash is definitely not stored; true means it may be
+     */
+    public synchronized boolean mightContain(String hash) {
+        long[] h = hashes(hash);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            if (get(slot(h, i)) == 0) {
+                definitelyNew.increment();
+                return false;
+            }
+        }
+        maybePresent.increment();
+        return true;
+    }
+
+    /**
+     * Record that a "maybe" turned out not to be stored
+     */
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isOverCapacity() {
+        return getCount() > capacity;
+    }
+
+    private int get(long slot) {
+        int b = counters[(int) (slot >>> 1)];
+        return (slot & 1) == 0 ? b & 0x0F : (b >>> 4) & 0x0F;
+    }
+
+    private void set(long slot, int value) {
+        int index = (int) (slot >>> 1);
+        int b = counters[index];
+        counters[index] = (byte) ((slot & 1) == 0 ? (b & 0xF0) | value : (b & 0x0F) | (value << 4));
+    }
+
+    private long slot(long[] h, int i) {
+        return Math.floorMod(h[0] + i * h[1], slots);
+    }
+
+    /**
+     * Two independent 64-bit hashes of the item hash, combined as h1 + i * h2
+     * to get every slot. FNV-1a, then mixed so arbitrary hash strings from
+     * other devices spread as well as SHA-256 hex does.
+     */
+    private static long[] hashes(String hash) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < hash.length(); i++) {
+            h = (h ^ hash.charAt(i)) * 0x100000001b3L;
+        }
+        return new long[] {mix(h), mix(h ^ 0x9E3779B97F4A7C15L) | 1};
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * Save the filter with the row count and highest id of the table it
+     * describes, which {@link #readFrom} checks before trusting it again
+     */
+    public synchronized void writeTo(Path file, long rowCount, long maxId) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp);
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+            data.writeInt(MAGIC);
+            data.writeInt(FORMAT_VERSION);
+            data.writeLong(rowCount);
+            data.writeLong(maxId);
+            data.writeInt(capacity);
+            data.writeLong(count);
+            data.writeInt(counters.length);
+            data.write(counters);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Load a saved filter, or return null if there is none or it was saved for
+     * a different state of the table, e.g. after the app was killed mid-session
+     */
+    public static HashFilter readFrom(Path file, long rowCount, long maxId) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(file);
+                DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION
+                    || data.readLong() != rowCount || data.readLong() != maxId) {
+                return null;
+            }
+            int capacity = data.readInt();
+            long count = data.readLong();
+            byte[] counters = new byte[data.readInt()];
+            data.readFully(counters);
+            return new HashFilter(capacity, counters, count);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d of %d items, %d definitely new, %d maybe present (%d false positives)",
+                getCount(), capacity, definitelyNew.sum(), maybePresent.sum(), falsePositives.sum());
+    }
+}
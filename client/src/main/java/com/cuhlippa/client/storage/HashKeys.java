@@ -0,0 +1,70 @@
+package com.cuhlippa.client.storage;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HexFormat;
+
+/**
+ * Stores item hashes in the database as their 32 raw bytes instead of 64 hex
+ * characters, halving the hash column and every index and foreign key built
+ * on it. Only lowercase SHA-256 hex strings, the form ClipboardManager
+ * produces, are packed; any other hash, e.g. from an older peer or a hand
+ * edited export, is stored as the text it came in. A packed blob never equals
+ * a text value, so the two forms cannot collide, and both read back unchanged.
+ */
+final class HashKeys {
+    private static final int HASH_BYTES = 32;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static final String PACK_EXPRESSION_TEMPLATE =
+            "CASE WHEN length(%1$s) = 64 AND %1$s NOT GLOB '*[^0-9a-f]*' THEN unhex(%1$s) ELSE %1$s END";
+
+    private HashKeys() {}
+
+    /**
+     * The value stored for a hash: its raw bytes when it is SHA-256 hex, otherwise the hash itself
+     */
+    static Object toKey(String hash) {
+        return isPackable(hash) ? HEX.parseHex(hash) : hash;
+    }
+
+    static String fromKey(Object key) {
+        if (key instanceof byte[] bytes) {
+            return toHex(bytes);
+        }
+        return key != null ? key.toString() : null;
+    }
+
+    static String toHex(byte[] bytes) {
+        return HEX.formatHex(bytes);
+    }
+
+    static void bind(PreparedStatement pstmt, int index, String hash) throws SQLException {
+        pstmt.setObject(index, toKey(hash));
+    }
+
+    static String read(ResultSet rs, String column) throws SQLException {
+        return fromKey(rs.getObject(column));
+    }
+
+    /**
+     * SQL form of {@link #toKey}, for converting an existing text column in place
+     */
+    static String packExpression(String column) {
+        return String.format(PACK_EXPRESSION_TEMPLATE, column);
+    }
+
+    private static boolean isPackable(String hash) {
+        if (hash == null || hash.length() != HASH_BYTES * 2) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char ch = hash.charAt(i);
+            if (!(ch >= '0' && ch <= '9') && !(ch >= 'a' && ch <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,395 @@
+package com.cuhlippa.client.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cold history, moved out of the live database into one SQLite file per
+ * month of capture time, e.g. cuhlippa-archive-2024-03.db beside
+ * cuhlippa.db. The live database then only holds recent items, so its pages
+ * stay in the cache and everyday queries never see the archived rows.
+ *
+ * Partitions are opened on first use and only read by searches and exports,
+ * which query all of them in parallel, each on its own connection. Content is
+ * kept inline in the partition, still encoded with its codec, so archived
+ * items never share blob files with the live database. Each partition has
+ * its own trigram index, items_trigram, built like clipboard_trigram, so a
+ * search looks up candidates rather than decoding every archived row.
+ *
+ * Moving rows is up to the archiver passed in, which runs periodically on a
+ * background thread.
+ */
+public class HistoryArchive implements AutoCloseable {
+    private static final long FIRST_RUN_DELAY_SECONDS = 60;
+    private static final long RUN_INTERVAL_SECONDS = 15 * 60;
+    private static final long SHUTDOWN_WAIT_SECONDS = 10;
+    private static final int QUERY_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final String FILE_SUFFIX = ".db";
+
+    static final String INSERT_ITEM = """
+            INSERT OR REPLACE INTO items(id, type, content, timestamp, hash, category, preview, content_size, thumbnail, codec, tags)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+    // The index is contentless, so the text goes in explicitly and a replaced row's entry is removed first
+    static final String DELETE_TRIGRAM = "DELETE FROM items_trigram WHERE rowid = ?";
+    static final String INSERT_TRIGRAM = "INSERT INTO items_trigram(rowid, body) VALUES (?, ?)";
+
+    @FunctionalInterface
+    public interface PartitionWork<T> {
+        T execute(YearMonth month, Connection conn) throws SQLException;
+    }
+
+    private final Path directory;
+    private final String filePrefix;
+    private final ConnectionPool.ConnectionSetup setup;
+    private final PayloadCompression compression;
+    private final Runnable archiver;
+    // Newest month first, which is the order searches want their results in
+    private final Map<YearMonth, Partition> partitions = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-archive");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService queryExecutor;
+
+    private final LongAdder itemsArchived = new LongAdder();
+    private final LongAdder archivePasses = new LongAdder();
+    private final LongAdder partitionQueries = new LongAdder();
+
+    /**
+     * Partition files are named prefix-yyyy-MM.db, with prefix a path such as
+     * /home/me/cuhlippa-archive. The setup is applied to every partition
+     * connection, as it is to the live pool's. The compression decodes the
+     * text of partitions archived before they had a trigram index.
+     */
+    HistoryArchive(Path prefix, ConnectionPool.ConnectionSetup setup, PayloadCompression compression,
+            Runnable archiver) {
+        this.directory = prefix.toAbsolutePath().getParent();
+        this.filePrefix = prefix.getFileName() + "-";
+        this.setup = setup;
+        this.compression = compression;
+        this.archiver = archiver;
+        AtomicInteger threads = new AtomicInteger();
+        this.queryExecutor = Executors.newFixedThreadPool(QUERY_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "archive-query-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        discoverPartitions();
+    }
+
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::runArchiver, FIRST_RUN_DELAY_SECONDS, RUN_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    private void runArchiver() {
+        try {
+            archiver.run();
+            archivePasses.increment();
+        } catch (RuntimeException e) {
+            System.err.println("Archiving old history failed: " + e.getMessage());
+        }
+    }
+
+    private void discoverPartitions() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, filePrefix + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    YearMonth month = YearMonth.parse(
+                            name.substring(filePrefix.length(), name.length() - FILE_SUFFIX.length()));
+                    partitions.put(month, new Partition(file));
+                } catch (DateTimeParseException e) {
+                    // Not a partition, e.g. a file the user put there
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list archive partitions: " + e.getMessage());
+        }
+    }
+
+    public boolean isEmpty() {
+        return partitions.isEmpty();
+    }
+
+    /**
+     * Months that have a partition, newest first
+     */
+    public List<YearMonth> getPartitions() {
+        return new ArrayList<>(partitions.keySet());
+    }
+
+    void recordArchived(int items) {
+        itemsArchived.add(items);
+    }
+
+    /**
+     * Run work on one month's partition, creating it if it does not exist yet
+     */
+    <T> T write(YearMonth month, PartitionWork<T> work) throws SQLException {
+        Partition partition = partitions.computeIfAbsent(month,
+                m -> new Partition(directory.resolve(filePrefix + m + FILE_SUFFIX)));
+        return partition.use(month, work);
+    }
+
+    /**
+     * Run work on one month's partition, or return null if there is none
+     */
+    <T> T read(YearMonth month, PartitionWork<T> work) throws SQLException {
+        Partition partition = partitions.get(month);
+        return partition != null ? partition.use(month, work) : null;
+    }
+
+    /**
+     * Run work on every partition in parallel, newest month first in the
+     * result. A partition that fails is reported and left out, so one damaged
+     * file does not hide the rest of the archive.
+     */
+    <T> CompletableFuture<List<T>> queryAll(PartitionWork<List<T>> work) {
+        List<CompletableFuture<List<T>>> futures = new ArrayList<>();
+        for (Map.Entry<YearMonth, Partition> entry : partitions.entrySet()) {
+            YearMonth month = entry.getKey();
+            Partition partition = entry.getValue();
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                partitionQueries.increment();
+                try {
+                    return partition.use(month, work);
+                } catch (SQLException e) {
+                    System.err.println("Failed to query archive partition " + month + ": " + e.getMessage());
+                    return List.<T>of();
+                }
+            }, queryExecutor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<T> results = new ArrayList<>();
+            futures.forEach(future -> results.addAll(future.join()));
+            return results;
+        });
+    }
+
+    /**
+     * Remove archived copies of the given items from every partition.
+     * Returns the number of rows deleted.
+     */
+    int delete(Collection<String> hashes) {
+        int deleted = 0;
+        for (Map.Entry<YearMonth, Partition> entry : partitions.entrySet()) {
+            try {
+                deleted += entry.getValue().use(entry.getKey(), (month, conn) -> {
+                    int rows = 0;
+                    try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM items WHERE hash = ?")) {
+                        for (String hash : hashes) {
+                            HashKeys.bind(pstmt, 1, hash);
+                            rows += pstmt.executeUpdate();
+                        }
+                    }
+                    return rows;
+                });
+            } catch (SQLException e) {
+                System.err.println("Failed to delete from archive partition " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Close and delete every partition file. Returns the number of files deleted.
+     */
+    int deleteAll() {
+        int deleted = 0;
+        for (YearMonth month : getPartitions()) {
+            Partition partition = partitions.remove(month);
+            if (partition != null && partition.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Stop the archiver, waiting for a pass that is already running, and
+     * close the partition connections
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        queryExecutor.shutdownNow();
+        partitions.values().forEach(Partition::close);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d partitions, %d items archived in %d passes, %d partition queries",
+                partitions.size(), itemsArchived.sum(), archivePasses.sum(), partitionQueries.sum());
+    }
+
+    /**
+     * One month's file and the connection to it, opened on first use. Work on
+     * a partition is serialized, so the archiver, searches and exports never
+     * interleave statements on its connection.
+     */
+    private class Partition {
+        private final Path file;
+        private Connection conn;
+        private boolean deleted = false;
+
+        Partition(Path file) {
+            this.file = file;
+        }
+
+        synchronized <T> T use(YearMonth month, PartitionWork<T> work) throws SQLException {
+            if (deleted) {
+                throw new SQLException("Archive partition " + month + " was deleted");
+            }
+            if (conn == null) {
+                conn = open();
+            }
+            return work.execute(month, conn);
+        }
+
+        private Connection open() throws SQLException {
+            Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+            try (Statement stmt = connection.createStatement()) {
+                // Same columns as clipboard, minus storage and pinned, which
+                // archived rows never vary in, with the tags folded into the row
+                stmt.execute("""
+                        CREATE TABLE IF NOT EXISTS items (
+                            id INTEGER PRIMARY KEY,
+                            type TEXT NOT NULL,
+                            content BLOB NOT NULL,
+                            timestamp INTEGER NOT NULL,
+                            hash BLOB NOT NULL UNIQUE,
+                            category TEXT NOT NULL,
+                            preview TEXT,
+                            content_size INTEGER NOT NULL,
+                            thumbnail BLOB,
+                            codec TEXT NOT NULL,
+                            tags TEXT
+                        )
+                        """);
+                boolean indexed;
+                try (ResultSet rs = stmt.executeQuery(
+                        "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'items_trigram'")) {
+                    indexed = rs.next();
+                }
+                stmt.execute("""
+                        CREATE VIRTUAL TABLE IF NOT EXISTS items_trigram USING fts5(
+                            body,
+                            content = '',
+                            contentless_delete = 1,
+                            tokenize = 'trigram case_sensitive 0'
+                        )
+                        """);
+                stmt.execute("""
+                        CREATE TRIGGER IF NOT EXISTS items_trigram_delete AFTER DELETE ON items
+                        WHEN old.type IN ('TEXT', 'FILE_PATH')
+                        BEGIN
+                            DELETE FROM items_trigram WHERE rowid = old.id;
+                        END
+                        """);
+                if (!indexed) {
+                    indexExistingItems(connection);
+                }
+                setup.apply(connection);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+            return connection;
+        }
+
+        /**
+         * Index the text of a partition archived before partitions had a
+         * trigram index. Runs once, when such a partition is first opened.
+         */
+        private void indexExistingItems(Connection connection) throws SQLException {
+            int indexed = 0;
+            connection.setAutoCommit(false);
+            try (PreparedStatement select = connection.prepareStatement(
+                            "SELECT id, content, codec FROM items WHERE type IN ('TEXT', 'FILE_PATH')");
+                    PreparedStatement insert = connection.prepareStatement(INSERT_TRIGRAM);
+                    ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    try {
+                        insert.setLong(1, rs.getLong(1));
+                        insert.setString(2, new String(compression.decode(rs.getString(3), rs.getBytes(2)),
+                                StandardCharsets.UTF_8));
+                        insert.executeUpdate();
+                        indexed++;
+                    } catch (IOException e) {
+                        System.err.println("Cannot index archived item " + rs.getLong(1) + ": " + e.getMessage());
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            if (indexed > 0) {
+                System.out.println("Indexed " + indexed + " items in archive partition " + file.getFileName());
+            }
+        }
+
+        synchronized void close() {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    System.err.println("Failed to close archive partition " + file + ": " + e.getMessage());
+                }
+                conn = null;
+            }
+        }
+
+        synchronized boolean delete() {
+            close();
+            deleted = true;
+            try {
+                Files.deleteIfExists(file.resolveSibling(file.getFileName() + "-journal"));
+                return Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("Failed to delete archive partition " + file + ": " + e.getMessage());
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.cuhlippa.client.storage;
+
+/**
+ * Criteria for paging through history. Unset fields match everything.
+ */
+public class HistoryFilter {
+    private String searchText;
+    private String category;
+    private String tag;
+    private boolean pinnedOnly;
+
+    public static HistoryFilter all() {
+        return new HistoryFilter();
+    }
+
+    public static HistoryFilter search(String searchText) {
+        HistoryFilter filter = new HistoryFilter();
+        filter.setSearchText(searchText);
+        return filter;
+    }
+
+    public String getSearchText() {
+        return searchText;
+    }
+
+    /**
+     * Case-insensitive substring to look for in the item content or type name
+     */
+    public void setSearchText(String searchText) {
+        this.searchText = (searchText != null && !searchText.isBlank()) ? searchText.toLowerCase().trim() : null;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag != null ? tag.toLowerCase() : null;
+    }
+
+    public boolean isPinnedOnly() {
+        return pinnedOnly;
+    }
+
+    public void setPinnedOnly(boolean pinnedOnly) {
+        this.pinnedOnly = pinnedOnly;
+    }
+
+    /**
+     * Whether matching depends on an item's category, tags or pin state,
+     * which can change after the item is stored
+     */
+    public boolean dependsOnMetadata() {
+        return category != null || tag != null || pinnedOnly;
+    }
+}
@@ -0,0 +1,38 @@
+package com.cuhlippa.client.storage;
+
+import com.cuhlippa.client.clipboard.ClipboardItem;
+
+import java.util.List;
+
+/**
+ * One page of history, newest first, with the cursor for the page after it.
+ */
+public class HistoryPage {
+    /** Cursor value that starts paging from the newest item */
+    public static final long FIRST_PAGE = 0;
+
+    private final List<ClipboardItem> items;
+    private final long nextCursor;
+    private final boolean hasMore;
+
+    public HistoryPage(List<ClipboardItem> items, long nextCursor, boolean hasMore) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<ClipboardItem> getItems() {
+        return items;
+    }
+
+    /**
+     * Id of the last item on this page; pass it as afterId to fetch the next page
+     */
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
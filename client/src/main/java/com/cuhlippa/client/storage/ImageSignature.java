@@ -0,0 +1,121 @@
+package com.cuhlippa.client.storage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 256-bit difference hash (dHash) of an image, for finding captures of the
+ * same picture that differ in a few pixels, in size or brightness, or only in
+ * how the PNG was encoded. Such copies get signatures a few bits apart, so the
+ * Hamming distance between signatures stands in for how different the images
+ * look.
+ *
+ * The hash is taken from the item's thumbnail, which is already scaled down
+ * to Thumbnails.MAX_DIMENSION, so the full image is never decoded for it. The
+ * thumbnail is averaged into a grid of GRID rows of GRID + 1 brightness cells,
+ * with transparency laid over white, and each bit records whether a cell is
+ * brighter than its right neighbour. A 64-bit hash from an 8 by 8 grid would
+ * be too coarse for screenshots: two different files open in the same editor
+ * come out only a few bits apart.
+ *
+ * For lookup, each of the {@link #BANDS} 64-bit words of the signature is one
+ * band. Two signatures within BANDS - 1 bits of each other agree exactly on at
+ * least one band, as with {@link TextSignature}.
+ */
+public final class ImageSignature {
+    public static final int BANDS = 4;
+    private static final int GRID = 16;
+
+    private ImageSignature() {}
+
+    /**
+     * dHash of an encoded image, normally a thumbnail, or null if it cannot be decoded
+     */
+    public static long[] dHash(byte[] imageData) {
+        if (imageData == null) {
+            return null;
+        }
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
+            return image != null ? dHash(image) : null;
+        } catch (IOException e) {
+            System.err.println("Failed to sign image: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static long[] dHash(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[][] cells = new double[GRID][GRID + 1];
+        for (int row = 0; row < GRID; row++) {
+            // Images smaller than the grid repeat their pixels over several cells
+            int y0 = row * height / GRID;
+            int y1 = Math.max(y0 + 1, (row + 1) * height / GRID);
+            for (int column = 0; column <= GRID; column++) {
+                int x0 = column * width / (GRID + 1);
+                int x1 = Math.max(x0 + 1, (column + 1) * width / (GRID + 1));
+                double sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        sum += brightness(image.getRGB(x, y));
+                    }
+                }
+                cells[row][column] = sum / ((x1 - x0) * (y1 - y0));
+            }
+        }
+
+        long[] signature = new long[BANDS];
+        int bit = 0;
+        for (int row = 0; row < GRID; row++) {
+            for (int column = 0; column < GRID; column++) {
+                if (cells[row][column] > cells[row][column + 1]) {
+                    signature[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+                }
+                bit++;
+            }
+        }
+        return signature;
+    }
+
+    public static int distance(long[] a, long[] b) {
+        int distance = 0;
+        for (int i = 0; i < BANDS; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+
+    public static long band(long[] signature, int band) {
+        return signature[band];
+    }
+
+    static byte[] toBytes(long[] signature) {
+        ByteBuffer buffer = ByteBuffer.allocate(BANDS * Long.BYTES);
+        for (long word : signature) {
+            buffer.putLong(word);
+        }
+        return buffer.array();
+    }
+
+    static long[] fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long[] signature = new long[BANDS];
+        for (int i = 0; i < BANDS; i++) {
+            signature[i] = buffer.getLong();
+        }
+        return signature;
+    }
+
+    /**
+     * Luma of an ARGB pixel as if drawn on white
+     */
+    private static double brightness(int argb) {
+        double alpha = ((argb >>> 24) & 0xff) / 255.0;
+        double luma = 0.299 * ((argb >> 16) & 0xff) + 0.587 * ((argb >> 8) & 0xff) + 0.114 * (argb & 0xff);
+        return luma * alpha + 255 * (1 - alpha);
+    }
+}
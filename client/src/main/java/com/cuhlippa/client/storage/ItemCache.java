@@ -0,0 +1,173 @@
+package com.cuhlippa.client.storage;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of recent item content, keyed by hash and bounded by the
+ * total number of bytes held rather than the number of entries, so a few
+ * screenshots cannot crowd out memory the way an entry count would allow.
+ * Least recently used content is evicted first.
+ *
+ * Content is fixed for a given hash, so a cached entry never goes stale; only
+ * whether the item still exists can change. Deletes invalidate their hashes,
+ * and loaders pass the {@link #generation()} they read under to {@link #put},
+ * so a load that raced with a delete of the same hash does not bring the item
+ * back. Recent invalidations are remembered per hash, so a delete of one item
+ * does not turn away concurrent loads of every other.
+ */
+public class ItemCache {
+    // Rough per-entry cost of the map node, key string and array header
+    private static final int ENTRY_OVERHEAD_BYTES = 200;
+    private static final int TRACKED_INVALIDATIONS = 4096;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long sizeBytes = 0;
+    private long generation = 0;
+    // Generation of the latest invalidation of each recently invalidated hash;
+    // older invalidations are only known to have happened at or before forgottenThrough
+    private final LinkedHashMap<String, Long> recentInvalidations = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            if (size() > TRACKED_INVALIDATIONS) {
+                forgottenThrough = eldest.getValue();
+                return true;
+            }
+            return false;
+        }
+    };
+    private long forgottenThrough = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public ItemCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Cached content for the hash, or null
+     */
+    public synchronized byte[] get(String hash) {
+        byte[] content = entries.get(hash);
+        if (content != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return content;
+    }
+
+    /**
+     * Whether content for the hash is cached. A probe, not a use: it is not
+     * counted as a hit or miss and does not make the entry more recent.
+     */
+    public synchronized boolean contains(String hash) {
+        return entries.containsKey(hash);
+    }
+
+    /**
+     * Counter that moves on every invalidation; read it before loading from storage
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Cache content loaded or written at the given generation, unless the hash
+     * has been invalidated since. Content larger than a quarter of the budget is
+     * not cached, so one huge item cannot flush everything else.
+     */
+    public synchronized void put(String hash, byte[] content, long loadedAt) {
+        if (hash == null || content == null || invalidatedSince(hash, loadedAt)) {
+            return;
+        }
+        long weight = weigh(content);
+        if (weight > maxBytes / 4) {
+            return;
+        }
+
+        byte[] previous = entries.put(hash, content);
+        if (previous != null) {
+            sizeBytes -= weigh(previous);
+        }
+        sizeBytes += weight;
+
+        Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes && eldest.hasNext()) {
+            sizeBytes -= weigh(eldest.next().getValue());
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private boolean invalidatedSince(String hash, long loadedAt) {
+        if (loadedAt < forgottenThrough) {
+            // Too long ago to tell, so assume the worst
+            return true;
+        }
+        Long invalidatedAt = recentInvalidations.get(hash);
+        return invalidatedAt != null && invalidatedAt > loadedAt;
+    }
+
+    public synchronized void invalidate(String hash) {
+        generation++;
+        // Re-inserted so the most recently invalidated hashes are the ones kept
+        recentInvalidations.remove(hash);
+        recentInvalidations.put(hash, generation);
+        byte[] removed = entries.remove(hash);
+        if (removed != null) {
+            sizeBytes -= weigh(removed);
+        }
+    }
+
+    public synchronized void invalidateAll(Collection<String> hashes) {
+        for (String hash : hashes) {
+            invalidate(hash);
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        recentInvalidations.clear();
+        forgottenThrough = generation;
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    private static long weigh(byte[] content) {
+        return content.length + ENTRY_OVERHEAD_BYTES;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("%d entries, %,d of %,d bytes; %d hits, %d misses (%.0f%% hit rate), %d evictions",
+                entries.size(), sizeBytes, maxBytes, hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups,
+                evictions);
+    }
+}
@@ -1,26 +1,153 @@
 package com.cuhlippa.client.storage;
 
 import com.cuhlippa.client.clipboard.ClipboardItem;
+import com.cuhlippa.client.clipboard.ContentHandle;
 import com.cuhlippa.client.clipboard.ItemType;
 import com.cuhlippa.client.config.Settings;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
-
-public class LocalDatabase {    private final String DB_URL;
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
-    private static final int CURRENT_DB_VERSION = 3;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+public class LocalDatabase implements AutoCloseable {
+    private final String DB_URL;
+    private final ConnectionPool pool;
+    private final BlobStore blobStore;
+    private final PayloadCompression compression = new PayloadCompression();
+    private final ChunkStore chunkStore = new ChunkStore(compression);
+    private final ItemCache itemCache = new ItemCache(ITEM_CACHE_BYTES);
+    private final Path hashFilterFile;
+    // Replaced only on the writer connection, so it never changes in the middle of a write
+    private volatile HashFilter hashFilter;
+    private final AtomicBoolean hashFilterRebuildQueued = new AtomicBoolean(false);
+    private final WriteQueue writeQueue;
+    private final StorageMaintenance maintenance;
+    private final AccessTracker accessTracker = new AccessTracker(this::flushAccesses);
+    private final HistoryArchive archive;
+    private final AsyncDatabase async = new AsyncDatabase(this);
+    // Unpinned items older than this move to the archive; 0 keeps everything live
+    private volatile int archiveAfterDays = 0;
+    // Blobs written for saves that are still queued, which the orphan sweep must keep
+    private final Set<String> pendingBlobs = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean historyLimitQueued = new AtomicBoolean(false);
+    private final AtomicBoolean byteBudgetQueued = new AtomicBoolean(false);
+    private final AtomicBoolean backgroundWorkStarted = new AtomicBoolean(false);
+    // Background work starts by itself this long after opening if no window reports its first paint
+    private static final long BACKGROUND_WORK_FALLBACK_SECONDS = 10;
+    private static final int CURRENT_DB_VERSION = 20;
+    private static final long ITEM_CACHE_BYTES = 32L * 1024 * 1024;
+    // Rows deleted per background eviction job, so captures queued behind it wait briefly
+    private static final int EVICTION_BATCH_SIZE = 200;
+    // Deletes remembered in the change log; consumers further behind have to reload
+    private static final int MAX_CHANGE_LOG_TOMBSTONES = 10_000;
+    // Most signatures a near-duplicate lookup compares, in case a band value is very common
+    private static final int MAX_NEAR_DUPLICATE_CANDIDATES = 1_000;
+    // Items signed per batch when signing the history stored before signatures existed
+    private static final int SIGNATURE_BACKFILL_BATCH_SIZE = 200;
+    // Rows moved per archive batch, and the most content one batch holds in memory
+    private static final int ARCHIVE_BATCH_SIZE = 200;
+    private static final long ARCHIVE_BATCH_BYTES = 32L * 1024 * 1024;
+    private static final String COLUMN_ID = "id";
     private static final String COLUMN_CATEGORY = "category";
     private static final String COLUMN_TYPE = "type";
     private static final String COLUMN_CONTENT = "content";
+    private static final String COLUMN_PREVIEW = "preview";
+    private static final String COLUMN_CONTENT_SIZE = "content_size";
+    private static final String COLUMN_THUMBNAIL = "thumbnail";
     private static final String COLUMN_TIMESTAMP = "timestamp";
     private static final String COLUMN_HASH = "hash";
     private static final String COLUMN_PINNED = "pinned";
+    private static final String COLUMN_STORAGE = "storage";
+    private static final String COLUMN_CODEC = "codec";
+    private static final String COLUMN_TAGS = "tags";
+    private static final String TAG_SEPARATOR = "\u001F";
+    private static final String STORAGE_INLINE = "inline";
+    private static final String STORAGE_BLOB = "blob";
+    private static final String STORAGE_CHUNKED = "chunked";
+
+    // Metadata only: content is fetched on demand through the item's ContentHandle.
+    // Tags are folded into each row with group_concat, so loading N items is one
+    // query instead of one tag lookup per row
+    private static final String ITEM_COLUMNS = """
+            c.id, c.type, c.timestamp, c.hash, c.category, c.pinned, c.preview, c.content_size, c.thumbnail,
+            (SELECT group_concat(t.tag, char(31)) FROM item_tags t WHERE t.item_hash = c.hash) AS tags
+            """;
+
+    // Hot queries, kept here so the startup query plan check explains exactly what runs
+    private static final String SQL_ITEMS_BY_TAG = "SELECT " + ITEM_COLUMNS + """
+                FROM clipboard c
+                JOIN item_tags it ON c.hash = it.item_hash
+                WHERE it.tag = ?
+                ORDER by c.timestamp DESC
+            """;
+    private static final String SQL_ITEMS_BY_CATEGORY = "SELECT " + ITEM_COLUMNS + " FROM clipboard c WHERE c.category = ?";
+    private static final String SQL_PINNED_ITEMS =
+            "SELECT " + ITEM_COLUMNS + " FROM clipboard c WHERE c.pinned = TRUE ORDER BY c.timestamp DESC";
+    private static final String SQL_TOP_BY_FRECENCY = "SELECT " + ITEM_COLUMNS
+            + " FROM item_access a JOIN clipboard c ON c.id = a.id ORDER BY a.frecency DESC LIMIT ?";
+    private static final String SQL_ALL_TAGS = "SELECT DISTINCT tag FROM item_tags ORDER BY tag";
+    private static final String SQL_ALL_CATEGORIES = "SELECT DISTINCT category FROM clipboard ORDER BY category";
+
+    // Archive partitions fold the tags into the row and never hold pinned items
+    private static final String ARCHIVE_ITEM_COLUMNS =
+            "c.id, c.type, c.timestamp, c.hash, c.category, FALSE AS pinned, c.preview, c.content_size, c.thumbnail, c.tags";
+
+    private static final String SQL_INSERT_ITEM = """
+            INSERT OR IGNORE INTO clipboard(type, content, timestamp, hash, category, pinned, preview, content_size, thumbnail, storage, codec)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String SQL_INSERT_SIGNATURE = """
+            INSERT OR REPLACE INTO text_signatures(id, simhash, band0, band1, band2, band3)
+            SELECT id, ?, ?, ?, ?, ? FROM clipboard WHERE %s = ?
+            """;
+    // One index lookup per band; see TextSignature
+    private static final String SQL_NEAR_DUPLICATE_CANDIDATES = """
+            SELECT id, simhash FROM text_signatures WHERE band0 = ?
+            UNION SELECT id, simhash FROM text_signatures WHERE band1 = ?
+            UNION SELECT id, simhash FROM text_signatures WHERE band2 = ?
+            UNION SELECT id, simhash FROM text_signatures WHERE band3 = ?
+            LIMIT ?
+            """;
+    private static final String SQL_INSERT_IMAGE_SIGNATURE = """
+            INSERT OR REPLACE INTO image_signatures(id, dhash, band0, band1, band2, band3)
+            SELECT id, ?, ?, ?, ?, ? FROM clipboard WHERE %s = ?
+            """;
+    // One index lookup per band; see ImageSignature
+    private static final String SQL_IMAGE_NEAR_DUPLICATE_CANDIDATES = """
+            SELECT id, dhash FROM image_signatures WHERE band0 = ?
+            UNION SELECT id, dhash FROM image_signatures WHERE band1 = ?
+            UNION SELECT id, dhash FROM image_signatures WHERE band2 = ?
+            UNION SELECT id, dhash FROM image_signatures WHERE band3 = ?
+            LIMIT ?
+            """;
+
+    // What an item counts for against the history byte budget: its content at
+    // original size plus its thumbnail. Compression only makes this an overestimate.
+    private static final String ITEM_BYTES = "(c.content_size + coalesce(length(c.thumbnail), 0))";
 
     private static String getProcessId() {
         return String.valueOf(ProcessHandle.current().pid());
@@ -37,45 +164,211 @@ public class LocalDatabase {    private final String DB_URL;
      * Constructor that allows demo mode specification
      */
     public LocalDatabase(boolean isDemoMode) {
+        this(isDemoMode
+                // In demo mode, use process ID to avoid conflicts between demo instances
+                ? "jdbc:sqlite:cuhlippa_" + getProcessId() + ".db"
+                // Production mode uses consistent database name
+                : "jdbc:sqlite:cuhlippa.db");
         if (isDemoMode) {
-            // In demo mode, use process ID to avoid conflicts between demo instances
-            this.DB_URL = "jdbc:sqlite:cuhlippa_" + getProcessId() + ".db";
             System.out.println("🎬 Demo database: " + this.DB_URL);
-        } else {
-            // Production mode uses consistent database name
-            this.DB_URL = "jdbc:sqlite:cuhlippa.db";
         }
-        
-        optimizeDatabaseConfiguration();
-        createTableIfNotExists();
-        checkAndMigrateDatabase();
-        createTagsTable();
     }
 
-    private void optimizeDatabaseConfiguration() {
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement()) {
-            
+    /**
+     * Constructor for an explicit JDBC URL, e.g. a scratch database for benchmarks
+     */
+    public LocalDatabase(String dbUrl) {
+        long start = System.nanoTime();
+        this.DB_URL = dbUrl;
+        BlobStore blobs = new BlobStore(siblingPath(dbUrl, "-blobs"));
+        this.blobStore = blobs;
+        PayloadCompression codecs = this.compression;
+        ChunkStore chunks = this.chunkStore;
+        ConnectionPool.ConnectionSetup setup =
+                connection -> SubstringSearch.registerFunctions(connection, blobs, chunks, codecs);
+        this.pool = new ConnectionPool(dbUrl, setup);
+
+        boolean schemaCurrent = bootstrap();
+        this.hashFilterFile = siblingPath(dbUrl, "-hashes.filter");
+        // Loaded before the write queue starts, so no insert or delete can slip past it
+        this.hashFilter = loadSavedHashFilter();
+        this.writeQueue = new WriteQueue(pool);
+        this.maintenance = new StorageMaintenance(pool, databaseFileFor(dbUrl));
+        this.archive = new HistoryArchive(siblingPath(dbUrl, "-archive"), setup, codecs, this::archiveOldItems);
+        accessTracker.start();
+        if (hashFilter == null) {
+            // Built on the writer thread rather than here; until it is in
+            // place, existence checks simply ask the database
+            scheduleHashFilterRebuild();
+        }
+        CompletableFuture.delayedExecutor(BACKGROUND_WORK_FALLBACK_SECONDS, TimeUnit.SECONDS)
+                .execute(this::startBackgroundWork);
+        System.out.printf("Opened database in %d ms%s%n", (System.nanoTime() - start) / 1_000_000,
+                schemaCurrent ? " (schema current, no DDL run)" : "");
+    }
+
+    /**
+     * Get the database ready on the writer connection alone. The schema
+     * version is checked first: when it is current, as on every launch but
+     * the first after an upgrade, there is nothing to create or migrate and
+     * no DDL runs at all. WAL mode and auto-vacuum are stored in the file, so
+     * they too are only set when the schema is created or migrated; the
+     * per-connection pragmas are applied by the pool. Returns whether the
+     * schema was already current.
+     */
+    private boolean bootstrap() {
+        try {
+            return pool.writeWithoutTransaction(conn -> {
+                int currentVersion = getDatabaseVersion(conn);
+                if (currentVersion >= CURRENT_DB_VERSION) {
+                    return true;
+                }
+                applyPersistentSettings(conn);
+                createTableIfNotExists(conn);
+                // Before migrating, since later migrations index item_tags
+                createTagsTable(conn);
+                migrate(conn, currentVersion);
+                return false;
+            });
+        } catch (SQLException e) {
+            System.err.println("Failed to open database: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Start the work that can wait until the app is on screen: the query plan
+     * check, the orphan blob sweep, signing items stored before signatures
+     * existed, storage maintenance and archiving. Called
+     * when the window first paints, or by itself shortly after opening if no
+     * window does; only the first call has any effect.
+     */
+    public void startBackgroundWork() {
+        if (!backgroundWorkStarted.compareAndSet(false, true)) {
+            return;
+        }
+        maintenance.start();
+        archive.start();
+        Thread checks = new Thread(() -> {
+            checkQueryPlans();
+            sweepOrphanBlobs();
+            backfillSignatures();
+        }, "db-startup-checks");
+        checks.setDaemon(true);
+        checks.start();
+    }
+
+    private static Path databaseFileFor(String dbUrl) {
+        return Paths.get(dbUrl.replaceFirst("^jdbc:sqlite:", "")).toAbsolutePath();
+    }
+
+    /**
+     * Files that belong to the database live beside it, e.g. cuhlippa-blobs for
+     * cuhlippa.db with the suffix "-blobs"
+     */
+    private static Path siblingPath(String dbUrl, String suffix) {
+        Path dbPath = databaseFileFor(dbUrl);
+        String name = dbPath.getFileName().toString().replaceFirst("\\.db$", "");
+        return dbPath.resolveSibling(name + suffix);
+    }
+
+    /**
+     * The filter saved at the last shutdown, if it still matches the table,
+     * or null when it has to be rebuilt
+     */
+    private HashFilter loadSavedHashFilter() {
+        try {
+            return pool.read(conn -> {
+                long[] state = readTableState(conn);
+                try {
+                    HashFilter saved = HashFilter.readFrom(hashFilterFile, state[0], state[1]);
+                    Files.deleteIfExists(hashFilterFile);
+                    if (saved != null && !saved.isOverCapacity()) {
+                        return saved;
+                    }
+                } catch (IOException e) {
+                    System.err.println("Could not read saved hash filter, rebuilding: " + e.getMessage());
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            System.err.println("Failed to load hash filter: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static HashFilter buildHashFilter(PooledConnection conn, long items) throws SQLException {
+        long start = System.nanoTime();
+        HashFilter filter = HashFilter.forItems(items);
+        try (ResultSet rs = conn.prepare("SELECT hash FROM clipboard").executeQuery()) {
+            while (rs.next()) {
+                filter.add(HashKeys.read(rs, COLUMN_HASH));
+            }
+        }
+        System.out.printf("Built hash filter for %d items in %d ms%n", filter.getCount(),
+                (System.nanoTime() - start) / 1_000_000);
+        return filter;
+    }
+
+    /**
+     * Queue a rebuild at twice the size once the history outgrows the filter,
+     * e.g. after a large import, before false positives send most checks to
+     * the database, or at startup when there is no saved filter. It runs as a write, so no insert or delete interleaves
+     * with the scan.
+     */
+    private void scheduleHashFilterRebuild() {
+        if (!hashFilterRebuildQueued.compareAndSet(false, true)) {
+            return;
+        }
+        writeQueue.submit(conn -> {
+            hashFilter = buildHashFilter(conn, readTableState(conn)[0]);
+            return null;
+        }).whenComplete((ignored, e) -> {
+            hashFilterRebuildQueued.set(false);
+            if (e != null) {
+                logWriteFailure("Error rebuilding hash filter", e);
+            }
+        });
+    }
+
+    /**
+     * Row count and highest id, which together tell whether a saved hash filter still fits
+     */
+    private static long[] readTableState(PooledConnection conn) throws SQLException {
+        try (ResultSet rs = conn.prepare("SELECT count(*), coalesce(max(id), 0) FROM clipboard").executeQuery()) {
+            rs.next();
+            return new long[] {rs.getLong(1), rs.getLong(2)};
+        }
+    }
+
+    private void saveHashFilter() {
+        if (hashFilter == null) {
+            return;
+        }
+        try {
+            long[] state = pool.read(LocalDatabase::readTableState);
+            hashFilter.writeTo(hashFilterFile, state[0], state[1]);
+        } catch (SQLException | IOException e) {
+            System.err.println("Failed to save hash filter: " + e.getMessage());
+        }
+    }
+
+    private void applyPersistentSettings(PooledConnection conn) throws SQLException {
+        // busy_timeout, synchronous, cache_size and temp_store are per-connection
+        // and applied by the pool whenever it opens a connection
+        try (Statement stmt = conn.createStatement()) {
+            // Only takes effect on a new database, before its first table;
+            // existing ones are converted by migration 12
+            stmt.execute("PRAGMA auto_vacuum=INCREMENTAL");
             // Enable WAL mode for better concurrent access
             stmt.execute("PRAGMA journal_mode=WAL");
-            
-            // Set busy timeout to handle lock contention
-            stmt.execute("PRAGMA busy_timeout=5000");
-            
-            // Optimize performance
-            stmt.execute("PRAGMA synchronous=NORMAL");
-            stmt.execute("PRAGMA cache_size=10000");
-            stmt.execute("PRAGMA temp_store=memory");
-            
-            System.out.println("Database optimizations applied for concurrent access");
-        } catch (SQLException e) {
-            System.err.println("Failed to optimize database: " + e.getMessage());
         }
+        System.out.println("Database optimizations applied for concurrent access");
     }
 
-    private void createTableIfNotExists() {
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                Statement stmt = conn.createStatement()) {
+    private void createTableIfNotExists(PooledConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
             stmt.execute("""
                     CREATE TABLE IF NOT EXISTS clipboard (
                          id INTEGER PRIMARY KEY AUTOINCREMENT,
@@ -86,12 +379,10 @@ public class LocalDatabase {    private final String DB_URL;
                          category TEXT NOT NULL DEFAULT 'General'
                      )
                      """);
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
     }
 
-    private void createTagsTable() {
+    private void createTagsTable(PooledConnection conn) throws SQLException {
         String sql = """
                     CREATE TABLE IF NOT EXISTS item_tags (
                         item_hash TEXT NOT NULL,
@@ -100,409 +391,2656 @@ public class LocalDatabase {    private final String DB_URL;
                         FOREIGN KEY (item_hash) REFERENCES clipboard(hash)
                     )
                 """;
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                Statement stmt = conn.createStatement()) {
+        try (Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
-        } catch (SQLException e) {
-            System.out.println("Failed to create tags table: " + e.getMessage());
         }
     }
 
-    private void saveItem(Connection conn, ClipboardItem item) throws SQLException {
-        String sql = "INSERT OR IGNORE INTO clipboard(type, content, timestamp, hash, category, pinned) VALUES (?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, item.getType().name());
-            pstmt.setBytes(2, item.getContent());
-            pstmt.setString(3, FORMATTER.format(item.getTimestamp()));
-            pstmt.setString(4, item.getHash());
-            pstmt.setString(5, item.getCategory());
-            pstmt.setBoolean(6, item.isPinned());
-
-            pstmt.executeUpdate();
-            saveTags(item.getHash(), item.getTags());
+    /**
+     * An item with its thumbnail made, its content compressed or chunked and
+     * large content already in the blob store, so the writer thread only has
+     * rows to insert
+     */
+    private static class StagedItem {
+        final ClipboardItem item;
+        final byte[] content;
+        final byte[] stored;
+        final String codec;
+        final byte[] thumbnail;
+        final String storage;
+        // Only for chunked items
+        final List<ChunkStore.Chunk> chunks;
+        // Only for text items with any text
+        final Long signature;
+        // Only for image items with a thumbnail
+        final long[] imageSignature;
+
+        StagedItem(ClipboardItem item, byte[] content, PayloadCompression.Encoded encoded, byte[] thumbnail,
+                String storage, List<ChunkStore.Chunk> chunks) {
+            this.item = item;
+            this.content = content;
+            this.stored = encoded.getData();
+            this.codec = encoded.getCodec();
+            this.thumbnail = thumbnail;
+            this.storage = storage;
+            this.chunks = chunks;
+            this.signature = item.getType() == ItemType.TEXT ? signText(content) : null;
+            this.imageSignature = item.getType() == ItemType.IMAGE ? ImageSignature.dHash(thumbnail) : null;
         }
     }
 
-    public void saveItem(ClipboardItem item) {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            conn.setAutoCommit(false);
-            saveItem(conn, item);
-            conn.commit();
-        } catch (SQLException e) {
-            System.err.println("Error saving item: " + e.getMessage());
-            e.printStackTrace();
+    private StagedItem stage(ClipboardItem item) {
+        byte[] content = item.getContent();
+        byte[] thumbnail = item.getThumbnail();
+        if (thumbnail == null && item.getType() == ItemType.IMAGE) {
+            thumbnail = Thumbnails.createPng(content);
         }
-    }
-
-    public void saveItemAndUpdateHistory(ClipboardItem item, Settings settings) {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            conn.setAutoCommit(false);
-
-            saveItem(conn, item);
-            enforceHistoryLimit(conn, settings.getMaxHistoryItems());
-
-            conn.commit();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (chunkStore.shouldChunk(item.getType(), content)) {
+            return new StagedItem(item, content, new PayloadCompression.Encoded(PayloadCompression.NONE, new byte[0]),
+                    thumbnail, STORAGE_CHUNKED, stageChunks(content));
         }
-    }    private void saveTags(String itemHash, Set<String> tags) {
-        int maxRetries = 3;
-        int retryDelay = 100; // milliseconds
-        
-        for (int attempt = 0; attempt < maxRetries; attempt++) {
-            try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                conn.setAutoCommit(false);
-                try {
-                    deleteOldTags(conn, itemHash);
-                    insertNewTags(conn, itemHash, tags);
-                    conn.commit();
-                    return; // Success, exit retry loop
-                } catch (SQLException e) {
-                    conn.rollback();
-                    throw e;
-                }
-            } catch (SQLException e) {
-                if (attempt == maxRetries - 1) {
-                    System.err.println("Failed to save tags after " + maxRetries + " attempts: " + e.getMessage());
-                } else {
-                    System.out.println("Tag save attempt " + (attempt + 1) + " failed, retrying: " + e.getMessage());
-                    try {
-                        Thread.sleep(retryDelay * (attempt + 1)); // Exponential backoff
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        return;
-                    }
-                }
+        // Compressed here rather than on the writer thread; whether it spills
+        // is decided on the compressed size
+        PayloadCompression.Encoded encoded = compression.encode(item.getType(), content);
+        // The blob is written before the row commits; if the transaction rolls
+        // back, the orphaned file is removed by the next sweep
+        String storage = STORAGE_INLINE;
+        String blobName = PayloadCompression.blobName(item.getHash(), encoded.getCodec());
+        // The hash of a synced or imported item is taken as given, so one that
+        // cannot name a blob file keeps its content inline
+        if (BlobStore.shouldSpill(encoded.getData()) && BlobStore.isValidName(blobName)) {
+            pendingBlobs.add(blobName);
+            if (spillToBlobStore(blobName, encoded.getData())) {
+                storage = STORAGE_BLOB;
             }
         }
+        return new StagedItem(item, content, encoded, thumbnail, storage, null);
     }
 
-    private void deleteOldTags(Connection conn, String itemHash) {
-        String sql = "DELETE FROM item_tags WHERE item_hash = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, itemHash);
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            System.out.println("Failed to delete old tags: " + e.getMessage());
-        }
+    /**
+     * SimHash of text content, or null if it is blank
+     */
+    private static Long signText(byte[] content) {
+        String text = new String(content, StandardCharsets.UTF_8);
+        return TextSignature.canSign(text) ? TextSignature.simHash(text) : null;
     }
 
-    private void insertNewTags(Connection conn, String itemHash, Set<String> tags) {
-        String sql = "INSERT INTO item_tags (item_hash, tag) VALUES (?, ?)";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, itemHash);
-            for (String tag : tags) {
-                pstmt.setString(2, tag);
-                pstmt.addBatch();
-            }
-            pstmt.executeBatch();
+    /**
+     * Split the content into chunks and compress those not already stored.
+     * Only the lookup uses a connection, so the compression still happens
+     * here rather than on the writer thread.
+     */
+    private List<ChunkStore.Chunk> stageChunks(byte[] content) {
+        List<ChunkStore.Chunk> chunks = ChunkStore.split(content);
+        Set<String> stored;
+        try {
+            stored = pool.read(conn -> ChunkStore.findStored(conn, chunks));
         } catch (SQLException e) {
-            System.out.println("Unable to insert new tags: " + e.getMessage());
+            System.err.println("Failed to look up stored chunks: " + e.getMessage());
+            stored = Set.of();
         }
+        chunkStore.encode(content, chunks, stored);
+        return chunks;
     }
 
-    public List<ClipboardItem> getAllItems() {
-        List<ClipboardItem> items = new ArrayList<>();
-
-        String sql = "SELECT type, content, timestamp, hash, category, pinned FROM clipboard ORDER by id DESC";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                Statement stmt = conn.createStatement();
-                ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
-                ItemType type = ItemType.valueOf(rs.getString(COLUMN_TYPE));
-                byte[] content = rs.getBytes(COLUMN_CONTENT);
-                LocalDateTime timestamp = LocalDateTime.parse(rs.getString(COLUMN_TIMESTAMP));
-                String hash = rs.getString(COLUMN_HASH);
-                Set<String> tags = loadTagsForItem(hash);
-                String category = rs.getString(COLUMN_CATEGORY);
-                boolean pinned = rs.getBoolean(COLUMN_PINNED);
+    /**
+     * Queue the insert of a staged item. Once the row is committed its blob is
+     * released to the sweep, its content goes into the cache and any archived
+     * copy is dropped.
+     */
+    private <T> CompletableFuture<T> submitSave(StagedItem staged, ConnectionPool.SqlWork<T> work) {
+        long cacheGeneration = itemCache.generation();
+        return writeQueue.submit(work)
+                .whenComplete((ignored, e) -> {
+                    pendingBlobs.remove(PayloadCompression.blobName(staged.item.getHash(), staged.codec));
+                    if (e == null) {
+                        itemCache.put(staged.item.getHash(), staged.content, cacheGeneration);
+                        dropArchivedCopies(List.of(staged.item.getHash()));
+                        // Not from the writer thread itself, which would block on its own full queue
+                        HashFilter filter = hashFilter;
+                        if (filter != null && filter.isOverCapacity()) {
+                            scheduleHashFilterRebuild();
+                        }
+                    }
+                });
+    }
 
-                items.add(new ClipboardItem(type, content, timestamp, hash, tags, category, pinned));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+    /**
+     * Delete the archived copies of items just stored live again, e.g. copied
+     * or synced once more after being archived. Only the live one is kept, so
+     * the item is listed once and never archived into a second partition.
+     */
+    private void dropArchivedCopies(Collection<String> hashes) {
+        if (!hashes.isEmpty() && !archive.isEmpty()) {
+            archive.delete(hashes);
         }
-
-        return items;
     }
 
-    public List<ClipboardItem> getItemsByTag(String tag) {
-        String sql = """
-                    SELECT DISTINCT c.* from clipboard c
-                    JOIN item_tags it ON c.hash = it.item_hash
-                    WHERE it.tag = ?
-                    ORDER by c.timestamp DESC
-                """;
-        List<ClipboardItem> items = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, tag.toLowerCase());
-            ResultSet rs = pstmt.executeQuery();
-
-            while (rs.next()) {
-                ClipboardItem item = createItemFromResultSet(rs);
-                items.add(item);
+    /**
+     * Run work on the write queue and wait for its batch to commit. Every
+     * change goes through the queue, so edits and deletes commit in order
+     * with the saves queued before them. Never call this from the writer or
+     * callback thread, which would wait on itself.
+     */
+    private <T> T writeAndWait(ConnectionPool.SqlWork<T> work) throws SQLException {
+        try {
+            return writeQueue.submit(work).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
             }
-        } catch (SQLException e) {
-            System.out.println("Failed to get items: " + e.getMessage());
+            throw e;
         }
-
-        return items;
     }
 
-    public List<ClipboardItem> getItemsByCategory(String category) {
-        String sql = "SELECT type, content, timestamp, hash, category, pinned FROM clipboard WHERE category = ?";
-
-        List<ClipboardItem> items = new ArrayList<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, category);
-            ResultSet rs = pstmt.executeQuery();
+    private void saveItem(PooledConnection conn, StagedItem staged) throws SQLException {
+        insertRow(conn, staged);
+        saveTags(conn, staged.item.getHash(), staged.item.getTags());
+    }
 
-            while (rs.next()) {
-                ClipboardItem item = createItemFromResultSet(rs);
-                items.add(item);
-            }
-        } catch (SQLException e) {
-            System.out.println("Failed to get items: " + e.getMessage());
+    /**
+     * Insert the item's row unless its hash is already stored. Returns whether it was inserted.
+     */
+    private boolean insertRow(PooledConnection conn, StagedItem staged) throws SQLException {
+        PreparedStatement pstmt = conn.prepare(SQL_INSERT_ITEM);
+        bindInsert(pstmt, staged);
+        boolean inserted = pstmt.executeUpdate() > 0;
+        if (inserted) {
+            afterInsert(conn, staged);
         }
-
-        return items;
+        return inserted;
     }
 
-    public Set<String> getAllTags() {
-        String sql = "SELECT DISTINCT tag FROM item_tags ORDER BY tag";
-        Set<String> tags = new HashSet<>();
-
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                Statement stmt = conn.createStatement();
-                ResultSet rs = stmt.executeQuery(sql)) {
+    private void bindInsert(PreparedStatement pstmt, StagedItem staged) throws SQLException {
+        ClipboardItem item = staged.item;
+        pstmt.setString(1, item.getType().name());
+        pstmt.setBytes(2, STORAGE_INLINE.equals(staged.storage) ? staged.stored : new byte[0]);
+        pstmt.setLong(3, toEpochMillis(item.getTimestamp()));
+        HashKeys.bind(pstmt, 4, item.getHash());
+        pstmt.setString(5, item.getCategory());
+        pstmt.setBoolean(6, item.isPinned());
+        pstmt.setString(7, item.getPreview());
+        pstmt.setInt(8, staged.content.length);
+        pstmt.setBytes(9, staged.thumbnail);
+        pstmt.setString(10, staged.storage);
+        pstmt.setString(11, staged.codec);
+    }
 
-            while (rs.next()) {
-                tags.add(rs.getString("tag"));
+    /**
+     * Bookkeeping for a row just inserted, in the same transaction
+     */
+    private void afterInsert(PooledConnection conn, StagedItem staged) throws SQLException {
+        HashFilter filter = hashFilter;
+        if (filter != null) {
+            // Added before the commit, so the filter never calls a stored hash new
+            filter.add(staged.item.getHash());
+        }
+        if (needsExplicitIndex(staged) || staged.chunks != null) {
+            long id = lastInsertId(conn);
+            if (needsExplicitIndex(staged)) {
+                indexText(conn, id, staged.content);
+            }
+            if (staged.chunks != null) {
+                chunkStore.write(conn, id, staged.content, staged.chunks);
             }
-        } catch (SQLException e) {
-            System.err.println("Error getting all tags: " + e.getMessage());
         }
-        return tags;
+        if (staged.signature != null) {
+            // By hash rather than id, since batched inserts have no id for each row
+            PreparedStatement pstmt = conn.prepare(SQL_INSERT_SIGNATURE.formatted(COLUMN_HASH));
+            bindSignature(pstmt, staged.signature);
+            HashKeys.bind(pstmt, 6, staged.item.getHash());
+            pstmt.executeUpdate();
+        }
+        if (staged.imageSignature != null) {
+            PreparedStatement pstmt = conn.prepare(SQL_INSERT_IMAGE_SIGNATURE.formatted(COLUMN_HASH));
+            bindImageSignature(pstmt, staged.imageSignature);
+            HashKeys.bind(pstmt, 6, staged.item.getHash());
+            pstmt.executeUpdate();
+        }
     }
 
-    public Set<String> getAllCategories() {
-        String sql = "SELECT DISTINCT category FROM clipboard ORDER BY category";
-        Set<String> categories = new HashSet<>();
-
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                Statement stmt = conn.createStatement();
-                ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
-                categories.add(rs.getString(COLUMN_CATEGORY));
-            }
-        } catch (SQLException e) {
-            System.err.println("Error getting all categories: " + e.getMessage());
+    private static void bindSignature(PreparedStatement pstmt, long signature) throws SQLException {
+        pstmt.setLong(1, signature);
+        for (int band = 0; band < TextSignature.BANDS; band++) {
+            pstmt.setInt(band + 2, TextSignature.band(signature, band));
         }
-        return categories;
     }
 
-    private Set<String> loadTagsForItem(String itemHash) {
-        String sql = "SELECT tag FROM item_tags WHERE item_hash = ?";
-        Set<String> tags = new HashSet<>();
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, itemHash);
-            ResultSet rs = pstmt.executeQuery();
+    private static void bindImageSignature(PreparedStatement pstmt, long[] signature) throws SQLException {
+        pstmt.setBytes(1, ImageSignature.toBytes(signature));
+        for (int band = 0; band < ImageSignature.BANDS; band++) {
+            pstmt.setLong(band + 2, ImageSignature.band(signature, band));
+        }
+    }
 
-            while (rs.next()) {
-                tags.add(rs.getString("tag"));
-            }
-        } catch (SQLException e) {
-            System.out.println("Failed to load tags: " + e.getMessage());
+    private static long lastInsertId(PooledConnection conn) throws SQLException {
+        try (ResultSet rs = conn.prepare("SELECT last_insert_rowid()").executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
         }
+    }
 
-        return tags;
+    /**
+     * The insert triggers only see uncompressed inline content, so other text
+     * is indexed by hand, straight after its insert
+     */
+    private static boolean needsExplicitIndex(StagedItem staged) {
+        return (!STORAGE_INLINE.equals(staged.storage) || !PayloadCompression.NONE.equals(staged.codec))
+                && isIndexedType(staged.item.getType());
     }
 
-    public boolean deleteItemByHash(String hash) {
-        String sql = "DELETE FROM clipboard WHERE hash = ?";
+    private static boolean isIndexedType(ItemType type) {
+        return type == ItemType.TEXT || type == ItemType.FILE_PATH;
+    }
 
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, hash);
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
-        } catch (SQLException e) {
-            System.err.println("Error deleting item: " + e.getMessage());
-            return false;
+    private void indexText(PooledConnection conn, long id, byte[] content) throws SQLException {
+        String text = new String(content, StandardCharsets.UTF_8);
+        for (String index : new String[] {"clipboard_fts", "clipboard_trigram"}) {
+            PreparedStatement pstmt = conn.prepare("INSERT INTO " + index + "(rowid, body) VALUES (?, ?)");
+            pstmt.setLong(1, id);
+            pstmt.setString(2, text);
+            pstmt.executeUpdate();
         }
     }
 
-    public boolean itemExistsByHash(String hash) {
-        String sql = "SELECT 1 FROM clipboard WHERE hash = ? LIMIT 1";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, hash);
-            ResultSet rs = pstmt.executeQuery();
-            return rs.next();
-        } catch (SQLException e) {
-            System.err.println("Error checking item existence: " + e.getMessage());
+    /**
+     * Write large content to the blob store. Returns false, keeping the
+     * content inline, if it is small or the file could not be written.
+     */
+    private boolean spillToBlobStore(String hash, byte[] content) {
+        if (!BlobStore.shouldSpill(content)) {
             return false;
         }
-    }
-
-    public boolean deleteAllItems() {
-        String sql = "DELETE FROM clipboard";
-
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            int rowsAffected = pstmt.executeUpdate();
-            System.out.println("Deleted " + rowsAffected + " items from clipboard");
-
+        try {
+            blobStore.write(hash, content);
             return true;
-        } catch (SQLException e) {
-            System.err.println("Error deleting items: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Failed to write blob, storing inline: " + e.getMessage());
             return false;
         }
     }
 
-    private ClipboardItem createItemFromResultSet(ResultSet rs) throws SQLException {
-        ItemType type = ItemType.valueOf(rs.getString(COLUMN_TYPE));
-        byte[] content = rs.getBytes(COLUMN_CONTENT);
-        LocalDateTime timestamp = LocalDateTime.parse(rs.getString(COLUMN_TIMESTAMP));
-        String hash = rs.getString(COLUMN_HASH);
-        String category = rs.getString(COLUMN_CATEGORY);
-        boolean pinned = rs.getBoolean(COLUMN_PINNED);
+    /**
+     * Queue the item for the writer thread. The future completes once it is
+     * committed, so anything that re-reads history should wait for it.
+     */
+    public CompletableFuture<Void> saveItem(ClipboardItem item) {
+        StagedItem staged = stage(item);
+        return this.<Void>submitSave(staged, conn -> {
+            saveItem(conn, staged);
+            return null;
+        }).whenComplete((ignored, e) -> logWriteFailure("Error saving item", e));
+    }
 
-        Set<String> tags = loadTagsForItem(hash);
+    /**
+     * Queue the item, then trim the history to the configured item limit and
+     * byte budget in the background if this capture took it over either
+     */
+    public CompletableFuture<Void> saveItemAndUpdateHistory(ClipboardItem item, Settings settings) {
+        StagedItem staged = stage(item);
+        int maxItems = settings.getMaxHistoryItems();
+        long maxBytes = settings.getMaxHistoryBytes();
+        return this.<long[]>submitSave(staged, conn -> {
+            saveItem(conn, staged);
+            return readHistoryStats(conn);
+        }).thenAccept(stats -> {
+            if (stats[0] > maxItems) {
+                scheduleHistoryLimit(maxItems);
+            }
+            if (maxBytes > 0 && stats[1] > maxBytes) {
+                scheduleByteBudget(maxBytes);
+            }
+        }).whenComplete((ignored, e) -> logWriteFailure("Error saving item", e));
+    }
 
-        return new ClipboardItem(type, content, timestamp, hash, tags, category, pinned);
+    /**
+     * Note that the user went back to an item, e.g. copied it to the clipboard
+     * again or received it again from another device. This only updates a
+     * counter in memory; accesses are written in batches every few seconds,
+     * for the frecency ranking and so the byte budget keeps the item over
+     * items nobody has looked at.
+     */
+    public void recordAccess(ClipboardItem item) {
+        accessTracker.record(item.getHash(), toEpochMillis(LocalDateTime.now()));
     }
 
-    private void enforceHistoryLimit(Connection conn, int maxItems) throws SQLException {
-        // Don't delete pinned items - only delete unpinned items beyond the limit
+    /**
+     * Write one batch of collected accesses as a single queued write, folding
+     * each item's new accesses into its stored frecency with log-sum-exp
+     */
+    private void flushAccesses(Map<String, AccessTracker.PendingAccess> batch) {
         String sql = """
-                    DELETE FROM clipboard
-                    WHERE pinned = FALSE
-                    AND id NOT IN (
-                        SELECT id FROM clipboard
-                        WHERE pinned = FALSE
-                        ORDER BY id DESC
-                        LIMIT ?
-                    )
+                INSERT INTO item_access(id, last_accessed, frecency)
+                SELECT id, ?, ? FROM clipboard WHERE hash = ?
+                ON CONFLICT(id) DO UPDATE SET
+                    last_accessed = max(last_accessed, excluded.last_accessed),
+                    frecency = max(frecency, excluded.frecency) + ln(1 + exp(-abs(frecency - excluded.frecency)))
                 """;
-
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, maxItems);
-            int deletedRows = pstmt.executeUpdate();
-            if (deletedRows > 0) {
-                System.out
-                        .println("Deleted " + deletedRows + " items to enforce history limit (preserved pinned items)");
+        writeQueue.submit(conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            for (Map.Entry<String, AccessTracker.PendingAccess> entry : batch.entrySet()) {
+                pstmt.setLong(1, entry.getValue().lastAccessed);
+                pstmt.setDouble(2, entry.getValue().frecency);
+                HashKeys.bind(pstmt, 3, entry.getKey());
+                pstmt.addBatch();
             }
-        }
+            pstmt.executeBatch();
+            return null;
+        }).whenComplete((ignored, e) -> logWriteFailure("Error recording item accesses", e));
     }
 
-    private void checkAndMigrateDatabase() {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            int currentVersion = getDatabaseVersion(conn);
-
-            if (currentVersion < CURRENT_DB_VERSION) {
-                System.out.println("Migrating database from version " + currentVersion + " to " + CURRENT_DB_VERSION);
-                performMigrations(conn, currentVersion);
-                setDatabaseVersion(conn, CURRENT_DB_VERSION);
-                System.out.println("Database migration completed successfully");
-            }
+    /**
+     * The items reused most, weighted towards recent reuse, best first. Only
+     * items that have been accessed at all are ranked, and accesses from the
+     * last few seconds may not be counted yet.
+     */
+    public List<ClipboardItem> getTopItemsByFrecency(int limit) {
+        try {
+            return pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(SQL_TOP_BY_FRECENCY);
+                pstmt.setInt(1, limit);
+                return readItems(pstmt);
+            });
         } catch (SQLException e) {
-            System.err.println("Migration failed: " + e.getMessage());
-            e.printStackTrace();
+            System.err.println("Error getting items by frecency: " + e.getMessage());
+            return new ArrayList<>();
         }
     }
 
-    private int getDatabaseVersion(Connection conn) throws SQLException {
-        try (Statement stmt = conn.createStatement();
-                ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
-            return rs.next() ? rs.getInt(1) : 0;
+    /**
+     * Store many items at once, e.g. an import. Items are written in chunks of
+     * {@link BatchOptions#getChunkSize()}, one write queue operation per chunk,
+     * with the rows and then the tags of each chunk sent as JDBC batches. The history
+     * limit, if set, is enforced once at the end rather than after every item.
+     *
+     * Blocks until the last chunk has committed. Captures queued meanwhile are
+     * written between chunks.
+     */
+    public BatchResult saveItems(Iterable<ClipboardItem> items, BatchOptions options) {
+        BatchResult result = new BatchResult();
+        List<ClipboardItem> chunk = new ArrayList<>(options.getChunkSize());
+        for (ClipboardItem item : items) {
+            chunk.add(item);
+            if (chunk.size() == options.getChunkSize()) {
+                saveChunk(chunk, options, result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            saveChunk(chunk, options, result);
         }
-    }
 
-    private void setDatabaseVersion(Connection conn, int version) throws SQLException {
-        try (Statement stmt = conn.createStatement()) {
-            stmt.execute("PRAGMA user_version = " + version);
+        if (options.getHistoryLimit() > 0) {
+            try {
+                writeAndWait(conn -> enforceHistoryLimit(conn, options.getHistoryLimit())).release();
+            } catch (SQLException e) {
+                System.err.println("Error enforcing history limit: " + e.getMessage());
+            }
+        }
+        HashFilter filter = hashFilter;
+        if (filter != null && filter.isOverCapacity()) {
+            scheduleHashFilterRebuild();
         }
+        return result;
     }
 
-    private void performMigrations(Connection conn, int fromVersion) throws SQLException {
-        conn.setAutoCommit(false);
+    private void saveChunk(List<ClipboardItem> items, BatchOptions options, BatchResult result) {
+        int size = items.size();
+        String[] errors = new String[size];
+        List<StagedItem> staged = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            try {
+                staged.add(stage(items.get(i)));
+            } catch (RuntimeException e) {
+                staged.add(null);
+                errors[i] = e.getMessage();
+            }
+        }
 
+        long cacheGeneration = itemCache.generation();
+        BatchResult.Outcome[] outcomes;
         try {
-            switch (fromVersion) {
-                case 0:
-                    migrateToVersion1(conn);
-                    System.out.println("Applied migration to version 1");
-                    // fall through case 1:
-                    migrateToVersion2(conn);
-                    System.out.println("Applied migration to version 2");
-                    // fall through
-                case 2:
-                    migrateToVersion3(conn);
-                    System.out.println("Applied migration to version 3");
-                    // fall through
-                default:
-                    // All migrations complete
-                    break;
+            try {
+                outcomes = writeAndWait(conn -> writeChunk(conn, staged, options, true, errors));
+            } catch (SQLException e) {
+                // A row in the batch failed and took the chunk with it; write the
+                // chunk again one item at a time to find out which
+                outcomes = writeAndWait(conn -> writeChunk(conn, staged, options, false, errors));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error saving batch: " + e.getMessage());
+            outcomes = new BatchResult.Outcome[size];
+            Arrays.fill(errors, e.getMessage());
+        } finally {
+            for (StagedItem s : staged) {
+                if (s != null) {
+                    pendingBlobs.remove(PayloadCompression.blobName(s.item.getHash(), s.codec));
+                }
+            }
+        }
+
+        List<String> inserted = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (outcomes[i] == null || outcomes[i] == BatchResult.Outcome.FAILED) {
+                result.addFailure(errors[i]);
+                continue;
+            }
+            if (outcomes[i] == BatchResult.Outcome.INSERTED) {
+                StagedItem s = staged.get(i);
+                itemCache.put(s.item.getHash(), s.content, cacheGeneration);
+                inserted.add(s.item.getHash());
+            }
+            result.add(outcomes[i]);
+        }
+        dropArchivedCopies(inserted);
+    }
+
+    /**
+     * Insert a chunk of staged items, skipping nulls, and return each item's
+     * outcome. Batched, the rows go in as JDBC batches and any failure fails
+     * the chunk; otherwise each row gets its own savepoint and a failure is
+     * recorded in errors.
+     */
+    private BatchResult.Outcome[] writeChunk(PooledConnection conn, List<StagedItem> staged, BatchOptions options,
+            boolean batched, String[] errors) throws SQLException {
+        BatchResult.Outcome[] outcomes = new BatchResult.Outcome[staged.size()];
+        PreparedStatement insert = conn.prepare(SQL_INSERT_ITEM);
+        List<Integer> pending = new ArrayList<>();
+
+        for (int i = 0; i < staged.size(); i++) {
+            StagedItem item = staged.get(i);
+            if (item == null) {
+                continue;
+            }
+            if (!batched) {
+                conn.prepare("SAVEPOINT batch_item").execute();
+                try {
+                    outcomes[i] = insertRow(conn, item) ? BatchResult.Outcome.INSERTED : BatchResult.Outcome.CONFLICT;
+                    conn.prepare("RELEASE batch_item").execute();
+                } catch (SQLException | RuntimeException e) {
+                    conn.prepare("ROLLBACK TO batch_item").execute();
+                    conn.prepare("RELEASE batch_item").execute();
+                    outcomes[i] = BatchResult.Outcome.FAILED;
+                    errors[i] = e.getMessage();
+                }
+            } else if (needsExplicitIndex(item)) {
+                // Indexed and chunked through last_insert_rowid(), so it cannot share a batch
+                flushInserts(conn, insert, pending, staged, outcomes);
+                outcomes[i] = insertRow(conn, item) ? BatchResult.Outcome.INSERTED : BatchResult.Outcome.CONFLICT;
+            } else {
+                bindInsert(insert, item);
+                insert.addBatch();
+                pending.add(i);
+            }
+        }
+        flushInserts(conn, insert, pending, staged, outcomes);
+
+        PreparedStatement tags = conn.prepare("INSERT OR IGNORE INTO item_tags (item_hash, tag) VALUES (?, ?)");
+        boolean anyTags = false;
+        for (int i = 0; i < staged.size(); i++) {
+            if (outcomes[i] == BatchResult.Outcome.CONFLICT && options.isMergeTagsOnConflict()) {
+                outcomes[i] = BatchResult.Outcome.MERGED;
+            }
+            if (outcomes[i] != BatchResult.Outcome.INSERTED && outcomes[i] != BatchResult.Outcome.MERGED) {
+                continue;
+            }
+            ClipboardItem item = staged.get(i).item;
+            for (String tag : item.getTags()) {
+                HashKeys.bind(tags, 1, item.getHash());
+                tags.setString(2, tag);
+                tags.addBatch();
+                anyTags = true;
+            }
+        }
+        if (anyTags) {
+            tags.executeBatch();
+        }
+        return outcomes;
+    }
+
+    private void flushInserts(PooledConnection conn, PreparedStatement insert, List<Integer> pending,
+            List<StagedItem> staged, BatchResult.Outcome[] outcomes) throws SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        int[] counts = insert.executeBatch();
+        for (int k = 0; k < counts.length; k++) {
+            int i = pending.get(k);
+            if (counts[k] > 0) {
+                outcomes[i] = BatchResult.Outcome.INSERTED;
+                afterInsert(conn, staged.get(i));
+            } else {
+                outcomes[i] = BatchResult.Outcome.CONFLICT;
+            }
+        }
+        pending.clear();
+    }
+
+    private static void logWriteFailure(String message, Throwable error) {
+        if (error != null) {
+            Throwable cause = error.getCause() != null ? error.getCause() : error;
+            System.err.println(message + ": " + cause.getMessage());
+        }
+    }
+
+    /**
+     * Persist tag and category edits without touching the stored content
+     */
+    public boolean updateTagsAndCategory(ClipboardItem item) {
+        String sql = "UPDATE clipboard SET category = ? WHERE hash = ?";
+        try {
+            return writeAndWait(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, item.getCategory());
+                HashKeys.bind(pstmt, 2, item.getHash());
+                int rowsAffected = pstmt.executeUpdate();
+                saveTags(conn, item.getHash(), item.getTags());
+                return rowsAffected > 0;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error updating item tags: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Content for an item loaded as metadata, from the cache if it is there
+     */
+    private byte[] loadContent(long id, String hash) {
+        byte[] cached = itemCache.get(hash);
+        if (cached != null) {
+            return cached;
+        }
+        long cacheGeneration = itemCache.generation();
+        byte[] content = loadContent(id);
+        if (content.length > 0) {
+            itemCache.put(hash, content, cacheGeneration);
+        }
+        return content;
+    }
+
+    private byte[] loadArchivedContent(YearMonth month, long id, String hash) {
+        byte[] cached = itemCache.get(hash);
+        if (cached != null) {
+            return cached;
+        }
+        long cacheGeneration = itemCache.generation();
+        try {
+            byte[] content = archive.read(month, (m, conn) -> {
+                try (PreparedStatement pstmt = conn.prepareStatement("SELECT content, codec FROM items WHERE id = ?")) {
+                    pstmt.setLong(1, id);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        return rs.next() ? compression.decode(rs.getString(2), rs.getBytes(1)) : null;
+                    } catch (IOException e) {
+                        throw new SQLException("Cannot decode archived content: " + e.getMessage(), e);
+                    }
+                }
+            });
+            if (content == null) {
+                return new byte[0];
+            }
+            itemCache.put(hash, content, cacheGeneration);
+            return content;
+        } catch (SQLException e) {
+            System.err.println("Error loading archived item content: " + e.getMessage());
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Fetch the content bytes of a single item, for items loaded as metadata
+     */
+    public byte[] loadContent(long id) {
+        String sql = "SELECT content, hash, storage, codec FROM clipboard WHERE id = ?";
+        String[] blobName = new String[1];
+        String[] codec = {PayloadCompression.NONE};
+        List<List<PayloadCompression.Encoded>> chunks = new ArrayList<>(1);
+        byte[] content;
+        try {
+            content = pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setLong(1, id);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return new byte[0];
+                    }
+                    codec[0] = rs.getString(COLUMN_CODEC);
+                    String storage = rs.getString(COLUMN_STORAGE);
+                    if (STORAGE_BLOB.equals(storage)) {
+                        blobName[0] = PayloadCompression.blobName(HashKeys.read(rs, COLUMN_HASH), codec[0]);
+                    } else if (STORAGE_CHUNKED.equals(storage)) {
+                        PreparedStatement read = conn.prepare(ChunkStore.SQL_READ_BY_ID);
+                        read.setLong(1, id);
+                        chunks.add(ChunkStore.read(read));
+                    }
+                    return rs.getBytes(COLUMN_CONTENT);
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println("Error loading item content: " + e.getMessage());
+            return new byte[0];
+        }
+
+        // Read the file and decompress after handing the reader connection back
+        try {
+            if (!chunks.isEmpty()) {
+                return chunkStore.assemble(chunks.get(0));
+            }
+            byte[] stored = blobName[0] != null ? blobStore.read(blobName[0]) : content;
+            return compression.decode(codec[0], stored);
+        } catch (IOException e) {
+            System.err.println("Error reading item content: " + e.getMessage());
+            return new byte[0];
+        }
+    }
+
+    private void saveTags(PooledConnection conn, String itemHash, Set<String> tags) {
+        // Runs inside the item's transaction on the writer connection, so there
+        // is no second connection to contend with and no need to retry
+        deleteOldTags(conn, itemHash);
+        insertNewTags(conn, itemHash, tags);
+    }
+
+    private void deleteOldTags(PooledConnection conn, String itemHash) {
+        String sql = "DELETE FROM item_tags WHERE item_hash = ?";
+        try {
+            PreparedStatement pstmt = conn.prepare(sql);
+            HashKeys.bind(pstmt, 1, itemHash);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            System.out.println("Failed to delete old tags: " + e.getMessage());
+        }
+    }
+
+    private void insertNewTags(PooledConnection conn, String itemHash, Set<String> tags) {
+        String sql = "INSERT INTO item_tags (item_hash, tag) VALUES (?, ?)";
+        try {
+            PreparedStatement pstmt = conn.prepare(sql);
+            HashKeys.bind(pstmt, 1, itemHash);
+            for (String tag : tags) {
+                pstmt.setString(2, tag);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } catch (SQLException e) {
+            System.out.println("Unable to insert new tags: " + e.getMessage());
+        }
+    }
+
+    public List<ClipboardItem> getAllItems() {
+        String sql = "SELECT " + ITEM_COLUMNS + " FROM clipboard c ORDER BY c.id DESC";
+        try {
+            return pool.read(conn -> readItems(conn.prepare(sql)));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Keyset-paginated history, newest first. Pass {@link HistoryPage#FIRST_PAGE}
+     * as afterId for the first page and the returned cursor for each page after it,
+     * so every page costs the same no matter how deep into the history it is.
+     */
+    public HistoryPage getItemsPage(long afterId, int limit, HistoryFilter filter) {
+        List<Object> params = new ArrayList<>();
+        String sql = buildPageQuery(afterId, limit, filter, params);
+        // Searches also cover the archive, whose partitions are queried
+        // alongside the live database; ids come from the same sequence, so
+        // the results merge into one page by id
+        CompletableFuture<List<ClipboardItem>> archived = searchesArchive(filter)
+                ? archive.queryAll((month, conn) -> readArchivedItems(conn, month, afterId, limit, filter))
+                : null;
+
+        try {
+            List<ClipboardItem> items = pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                for (int i = 0; i < params.size(); i++) {
+                    pstmt.setObject(i + 1, params.get(i));
+                }
+                return readItems(pstmt);
+            });
+            if (archived != null) {
+                items = mergeArchived(items, archived.join(), limit + 1);
+            }
+            boolean hasMore = items.size() > limit;
+            if (hasMore) {
+                items.remove(items.size() - 1);
+            }
+            long nextCursor = items.isEmpty() ? afterId : items.get(items.size() - 1).getId();
+            return new HistoryPage(items, nextCursor, hasMore);
+        } catch (SQLException e) {
+            System.err.println("Error loading history page: " + e.getMessage());
+            return new HistoryPage(new ArrayList<>(), afterId, false);
+        }
+    }
+
+    private static String buildPageQuery(long afterId, int limit, HistoryFilter filter, List<Object> params) {
+        StringBuilder sql = new StringBuilder("SELECT " + ITEM_COLUMNS + " FROM clipboard c WHERE 1 = 1");
+
+        if (afterId != HistoryPage.FIRST_PAGE) {
+            sql.append(" AND c.id < ?");
+            params.add(afterId);
+        }
+        if (filter.getCategory() != null) {
+            sql.append(" AND c.category = ?");
+            params.add(filter.getCategory());
+        }
+        if (filter.getTag() != null) {
+            // Resolved once through idx_item_tags_tag rather than probed per row
+            sql.append(" AND c.hash IN (SELECT item_hash FROM item_tags WHERE tag = ?)");
+            params.add(filter.getTag());
+        }
+        if (filter.isPinnedOnly()) {
+            sql.append(" AND c.pinned = TRUE");
+        }
+        if (filter.getSearchText() != null) {
+            // Substring of the content or of the type name, through the trigram index when possible
+            SubstringSearch.appendCondition(sql, params, filter.getSearchText());
+        }
+        // Fetch one extra row to learn whether another page exists
+        sql.append(" ORDER BY c.id DESC LIMIT ?");
+        params.add(limit + 1);
+        return sql.toString();
+    }
+
+    /**
+     * Whether a history page also searches the archive: only for queries the
+     * partitions' trigram index can answer. Shorter ones would decode every
+     * archived row, so they search live history only; exports still cover
+     * the whole archive through getArchivedItems.
+     */
+    private boolean searchesArchive(HistoryFilter filter) {
+        // Archived items are never pinned
+        String query = filter.getSearchText();
+        return query != null && query.codePointCount(0, query.length()) >= SubstringSearch.MIN_INDEXED_LENGTH
+                && !filter.isPinnedOnly() && !archive.isEmpty();
+    }
+
+    /**
+     * Newest first and at most max items. An item that is both live and
+     * archived, left behind by an archive pass that stopped halfway, is only
+     * listed as the live one.
+     */
+    private static List<ClipboardItem> mergeArchived(List<ClipboardItem> live, List<ClipboardItem> archived, int max) {
+        Set<String> seen = new HashSet<>();
+        List<ClipboardItem> merged = new ArrayList<>();
+        for (ClipboardItem item : live) {
+            seen.add(item.getHash());
+            merged.add(item);
+        }
+        for (ClipboardItem item : archived) {
+            if (seen.add(item.getHash())) {
+                merged.add(item);
+            }
+        }
+        merged.sort(Comparator.comparingLong(ClipboardItem::getId).reversed());
+        return new ArrayList<>(merged.subList(0, Math.min(max, merged.size())));
+    }
+
+    /**
+     * One partition's share of a history page, or every match if limit is 0
+     */
+    private List<ClipboardItem> readArchivedItems(Connection conn, YearMonth month, long afterId, int limit,
+            HistoryFilter filter) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT " + ARCHIVE_ITEM_COLUMNS + " FROM items c WHERE 1 = 1");
+        List<Object> params = new ArrayList<>();
+        if (afterId != HistoryPage.FIRST_PAGE) {
+            sql.append(" AND c.id < ?");
+            params.add(afterId);
+        }
+        if (filter.getCategory() != null) {
+            sql.append(" AND c.category = ?");
+            params.add(filter.getCategory());
+        }
+        if (filter.getTag() != null) {
+            sql.append(" AND instr(char(31) || c.tags || char(31), char(31) || ? || char(31)) > 0");
+            params.add(filter.getTag());
+        }
+        if (filter.getSearchText() != null) {
+            SubstringSearch.appendArchiveCondition(sql, params, filter.getSearchText());
+        }
+        sql.append(" ORDER BY c.id DESC");
+        if (limit > 0) {
+            sql.append(" LIMIT ?");
+            params.add(limit + 1);
+        }
+
+        List<ClipboardItem> items = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < params.size(); i++) {
+                pstmt.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    items.add(createItemFromResultSet(rs, month));
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Archived items matching the filter's category, tag and search text,
+     * newest first, read from all partitions in parallel. For exports, which
+     * want the whole history rather than the live part. An item archived in
+     * more than one partition is listed once, as its newest copy.
+     */
+    public List<ClipboardItem> getArchivedItems(HistoryFilter filter) {
+        if (filter.isPinnedOnly() || archive.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<ClipboardItem> items = new ArrayList<>(archive.queryAll(
+                (month, conn) -> readArchivedItems(conn, month, HistoryPage.FIRST_PAGE, 0, filter)).join());
+        items.sort(Comparator.comparingLong(ClipboardItem::getId).reversed());
+        Set<String> seen = new HashSet<>();
+        items.removeIf(item -> !seen.add(item.getHash()));
+        return items;
+    }
+
+    /**
+     * Full-text search over text and file path items, best matches first.
+     * Words match as prefixes and quoted text as exact phrases; see {@link FtsQuery}.
+     */
+    public List<ClipboardItem> searchItems(String query, int limit) {
+        String match = FtsQuery.toMatchExpression(query);
+        if (match == null) {
+            return new ArrayList<>();
+        }
+
+        String sql = "SELECT " + ITEM_COLUMNS + """
+                    FROM clipboard_fts f
+                    JOIN clipboard c ON c.id = f.rowid
+                    WHERE clipboard_fts MATCH ?
+                    ORDER BY f.rank
+                    LIMIT ?
+                """;
+        try {
+            return pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, match);
+                pstmt.setInt(2, limit);
+                return readItems(pstmt);
+            });
+        } catch (SQLException e) {
+            System.err.println("Error searching items: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    public List<ClipboardItem> getItemsByTag(String tag) {
+        try {
+            return pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(SQL_ITEMS_BY_TAG);
+                pstmt.setString(1, tag.toLowerCase());
+                return readItems(pstmt);
+            });
+        } catch (SQLException e) {
+            System.out.println("Failed to get items: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    public List<ClipboardItem> getItemsByCategory(String category) {
+        try {
+            return pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(SQL_ITEMS_BY_CATEGORY);
+                pstmt.setString(1, category);
+                return readItems(pstmt);
+            });
+        } catch (SQLException e) {
+            System.out.println("Failed to get items: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    public Set<String> getAllTags() {
+        try {
+            return pool.read(conn -> {
+                Set<String> tags = new HashSet<>();
+                try (ResultSet rs = conn.prepare(SQL_ALL_TAGS).executeQuery()) {
+                    while (rs.next()) {
+                        tags.add(rs.getString("tag"));
+                    }
+                }
+                return tags;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error getting all tags: " + e.getMessage());
+            return new HashSet<>();
+        }
+    }
+
+    public Set<String> getAllCategories() {
+        try {
+            return pool.read(conn -> {
+                Set<String> categories = new HashSet<>();
+                try (ResultSet rs = conn.prepare(SQL_ALL_CATEGORIES).executeQuery()) {
+                    while (rs.next()) {
+                        categories.add(rs.getString(COLUMN_CATEGORY));
+                    }
+                }
+                return categories;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error getting all categories: " + e.getMessage());
+            return new HashSet<>();
+        }
+    }
+
+    /**
+     * Sequence number of the latest change to the history. A consumer that
+     * loads everything takes this first, then follows with {@link #changesSince}.
+     */
+    public long getChangeSeq() {
+        try {
+            return pool.read(LocalDatabase::currentSeq);
+        } catch (SQLException e) {
+            System.err.println("Error reading change sequence: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Up to limit changes made after the given sequence number, oldest first.
+     * Costs O(changes) through the primary key, however large the history is.
+     */
+    public ChangeSet changesSince(long seq, int limit) {
+        String changesSql = "SELECT seq, item_hash, op FROM change_log WHERE seq > ? ORDER BY seq LIMIT ?";
+        String horizonSql = "SELECT pruned_through FROM change_log_state WHERE id = 1";
+        try {
+            return pool.read(conn -> {
+                List<ChangeSet.Change> changes = new ArrayList<>();
+                PreparedStatement pstmt = conn.prepare(changesSql);
+                pstmt.setLong(1, seq);
+                pstmt.setInt(2, limit + 1);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        changes.add(new ChangeSet.Change(rs.getLong(1), HashKeys.fromKey(rs.getObject(2)),
+                                ChangeSet.ChangeType.valueOf(rs.getString(3).toUpperCase())));
+                    }
+                }
+                // Read after the changes: a prune in between can only make this
+                // ask for a reload that was not needed, never hide a lost delete
+                long prunedThrough;
+                try (ResultSet rs = conn.prepare(horizonSql).executeQuery()) {
+                    prunedThrough = rs.next() ? rs.getLong(1) : 0;
+                }
+                if (seq < prunedThrough) {
+                    return new ChangeSet(new ArrayList<>(), currentSeq(conn), false, true);
+                }
+                boolean hasMore = changes.size() > limit;
+                if (hasMore) {
+                    changes.remove(limit);
+                }
+                long lastSeq = changes.isEmpty() ? seq : changes.get(changes.size() - 1).getSeq();
+                return new ChangeSet(changes, lastSeq, hasMore, false);
+            });
+        } catch (SQLException e) {
+            System.err.println("Error reading changes: " + e.getMessage());
+            return new ChangeSet(new ArrayList<>(), seq, false, false);
+        }
+    }
+
+    private static long currentSeq(PooledConnection conn) throws SQLException {
+        try (ResultSet rs = conn.prepare("SELECT seq FROM sqlite_sequence WHERE name = 'change_log'").executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Live items of the same type whose signature is within maxDistance bits
+     * of the given item's, closest first, not counting the item itself: a
+     * SimHash for text items and a dHash of the thumbnail for images.
+     * Candidates come from the signature bands, which finds every match up to
+     * BANDS - 1 bits; beyond that, only matches that also agree on a whole
+     * band are found. Archived items are not searched, nor are file lists.
+     */
+    public List<ClipboardItem> findNearDuplicates(ClipboardItem item, int maxDistance) {
+        Long signature = item.getType() == ItemType.TEXT ? signText(item.getContent()) : null;
+        long[] imageSignature = item.getType() == ItemType.IMAGE ? signImage(item) : null;
+        if (signature == null && imageSignature == null) {
+            return new ArrayList<>();
+        }
+        String sql = "SELECT " + ITEM_COLUMNS + " FROM clipboard c WHERE c.id = ?";
+        try {
+            return pool.read(conn -> {
+                Map<Long, Integer> distances = signature != null
+                        ? findTextCandidates(conn, signature, maxDistance)
+                        : findImageCandidates(conn, imageSignature, maxDistance);
+
+                List<ClipboardItem> matches = new ArrayList<>();
+                PreparedStatement pstmt = conn.prepare(sql);
+                for (long id : distances.keySet()) {
+                    pstmt.setLong(1, id);
+                    for (ClipboardItem match : readItems(pstmt)) {
+                        if (!match.getHash().equals(item.getHash())) {
+                            matches.add(match);
+                        }
+                    }
+                }
+                matches.sort(Comparator.comparingInt(match -> distances.get(match.getId())));
+                return matches;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error finding near duplicates: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Ids of the text items within maxDistance bits of the signature, with their distances
+     */
+    private static Map<Long, Integer> findTextCandidates(PooledConnection conn, long signature, int maxDistance)
+            throws SQLException {
+        PreparedStatement candidates = conn.prepare(SQL_NEAR_DUPLICATE_CANDIDATES);
+        for (int band = 0; band < TextSignature.BANDS; band++) {
+            candidates.setInt(band + 1, TextSignature.band(signature, band));
+        }
+        candidates.setInt(TextSignature.BANDS + 1, MAX_NEAR_DUPLICATE_CANDIDATES);
+        Map<Long, Integer> distances = new HashMap<>();
+        try (ResultSet rs = candidates.executeQuery()) {
+            while (rs.next()) {
+                int distance = TextSignature.distance(signature, rs.getLong(2));
+                if (distance <= maxDistance) {
+                    distances.put(rs.getLong(1), distance);
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Ids of the image items within maxDistance bits of the signature, with their distances
+     */
+    private static Map<Long, Integer> findImageCandidates(PooledConnection conn, long[] signature, int maxDistance)
+            throws SQLException {
+        PreparedStatement candidates = conn.prepare(SQL_IMAGE_NEAR_DUPLICATE_CANDIDATES);
+        for (int band = 0; band < ImageSignature.BANDS; band++) {
+            candidates.setLong(band + 1, ImageSignature.band(signature, band));
+        }
+        candidates.setInt(ImageSignature.BANDS + 1, MAX_NEAR_DUPLICATE_CANDIDATES);
+        Map<Long, Integer> distances = new HashMap<>();
+        try (ResultSet rs = candidates.executeQuery()) {
+            while (rs.next()) {
+                int distance = ImageSignature.distance(signature, ImageSignature.fromBytes(rs.getBytes(2)));
+                if (distance <= maxDistance) {
+                    distances.put(rs.getLong(1), distance);
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * dHash of an image item's thumbnail, made from the content if the item has none yet
+     */
+    private static long[] signImage(ClipboardItem item) {
+        byte[] thumbnail = item.getThumbnail();
+        if (thumbnail == null && item.getContent() != null) {
+            thumbnail = Thumbnails.createPng(item.getContent());
+        }
+        return ImageSignature.dHash(thumbnail);
+    }
+
+    /**
+     * Sign the text and image items stored before their signatures existed,
+     * so near-duplicate lookups cover the whole live history
+     */
+    private void backfillSignatures() {
+        int text = backfillSignatures(ItemType.TEXT, "text_signatures", SQL_INSERT_SIGNATURE.formatted(COLUMN_ID),
+                id -> signText(loadContent(id)), LocalDatabase::bindSignature);
+        int images = backfillSignatures(ItemType.IMAGE, "image_signatures",
+                SQL_INSERT_IMAGE_SIGNATURE.formatted(COLUMN_ID), id -> ImageSignature.dHash(loadThumbnail(id)),
+                LocalDatabase::bindImageSignature);
+        if (text + images > 0) {
+            System.out.println("Signed " + text + " stored text items and " + images
+                    + " stored images for near-duplicate lookups");
+        }
+    }
+
+    @FunctionalInterface
+    private interface SignatureBinder<S> {
+        void bind(PreparedStatement pstmt, S signature) throws SQLException;
+    }
+
+    /**
+     * Sign the unsigned items of one type a batch at a time. Content is read
+     * and hashed on this thread; only the inserts go through the write queue.
+     * Returns how many items were signed.
+     */
+    private <S> int backfillSignatures(ItemType type, String table, String insert, Function<Long, S> sign,
+            SignatureBinder<S> binder) {
+        String sql = """
+                SELECT c.id FROM clipboard c
+                WHERE c.type = '%s' AND c.id > ? AND NOT EXISTS (SELECT 1 FROM %s s WHERE s.id = c.id)
+                ORDER BY c.id LIMIT ?
+                """.formatted(type.name(), table);
+        long after = 0;
+        int signed = 0;
+        try {
+            while (true) {
+                long cursor = after;
+                List<Long> ids = pool.read(conn -> {
+                    PreparedStatement pstmt = conn.prepare(sql);
+                    pstmt.setLong(1, cursor);
+                    pstmt.setInt(2, SIGNATURE_BACKFILL_BATCH_SIZE);
+                    List<Long> batch = new ArrayList<>();
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            batch.add(rs.getLong(1));
+                        }
+                    }
+                    return batch;
+                });
+                if (ids.isEmpty()) {
+                    break;
+                }
+                Map<Long, S> signatures = new LinkedHashMap<>();
+                for (long id : ids) {
+                    S signature = sign.apply(id);
+                    if (signature != null) {
+                        signatures.put(id, signature);
+                    }
+                }
+                // Rows deleted in the meantime match nothing and are skipped
+                writeQueue.submit(conn -> {
+                    PreparedStatement pstmt = conn.prepare(insert);
+                    for (Map.Entry<Long, S> entry : signatures.entrySet()) {
+                        binder.bind(pstmt, entry.getValue());
+                        pstmt.setLong(6, entry.getKey());
+                        pstmt.executeUpdate();
+                    }
+                    return null;
+                }).join();
+                signed += signatures.size();
+                after = ids.get(ids.size() - 1);
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Error signing stored " + type.name().toLowerCase() + " items: " + e.getMessage());
+        }
+        return signed;
+    }
+
+    private byte[] loadThumbnail(long id) {
+        try {
+            return pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare("SELECT thumbnail FROM clipboard WHERE id = ?");
+                pstmt.setLong(1, id);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? rs.getBytes(1) : null;
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println("Error loading thumbnail: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The item with the given hash, or null if it is not stored
+     */
+    public ClipboardItem getItemByHash(String hash) {
+        String sql = "SELECT " + ITEM_COLUMNS + " FROM clipboard c WHERE c.hash = ?";
+        try {
+            List<ClipboardItem> items = pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                HashKeys.bind(pstmt, 1, hash);
+                return readItems(pstmt);
+            });
+            return items.isEmpty() ? null : items.get(0);
+        } catch (SQLException e) {
+            System.err.println("Error getting item: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public boolean deleteItemByHash(String hash) {
+        String sql = "DELETE FROM clipboard WHERE hash = ? RETURNING hash, storage, codec";
+
+        try {
+            RemovedItems removed = new RemovedItems();
+            int rowsAffected = writeAndWait(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                HashKeys.bind(pstmt, 1, hash);
+                int deleted = collectRemoved(pstmt, removed);
+                pruneChangeLog(conn);
+                return deleted;
+            });
+            removed.release();
+            int archivedRows = 0;
+            if (!archive.isEmpty()) {
+                archivedRows = archive.delete(List.of(hash));
+                itemCache.invalidate(hash);
+            }
+            return rowsAffected + archivedRows > 0;
+        } catch (SQLException e) {
+            System.err.println("Error deleting item: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Most hashes checked by sync and import are new, and the hash filter
+     * answers those without touching the database; only a possible match is
+     * confirmed with a query. Archived items count as missing, so storing one
+     * again brings it back live and drops its archived copy.
+     */
+    public boolean itemExistsByHash(String hash) {
+        if (itemCache.contains(hash)) {
+            return true;
+        }
+        HashFilter filter = hashFilter;
+        if (filter != null && !filter.mightContain(hash)) {
+            return false;
+        }
+        String sql = "SELECT 1 FROM clipboard WHERE hash = ? LIMIT 1";
+        try {
+            boolean exists = pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                HashKeys.bind(pstmt, 1, hash);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next();
+                }
+            });
+            if (!exists && filter != null) {
+                filter.recordFalsePositive();
+            }
+            return exists;
+        } catch (SQLException e) {
+            System.err.println("Error checking item existence: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public boolean deleteAllItems() {
+        // Hashes are returned so exactly these leave the hash filter and lose
+        // their blob files, not saves that commit just after: a save staged or
+        // queued now has already written its blob and still needs it
+        String sql = "DELETE FROM clipboard RETURNING hash, storage, codec";
+
+        try {
+            RemovedItems removed = new RemovedItems();
+            int rowsAffected = writeAndWait(conn -> {
+                int deleted = collectRemoved(conn.prepare(sql), removed);
+                pruneChangeLog(conn);
+                return deleted;
+            });
+            System.out.println("Deleted " + rowsAffected + " items from clipboard");
+            removed.release();
+            archive.deleteAll();
+
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error deleting items: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private List<ClipboardItem> readItems(PreparedStatement pstmt) throws SQLException {
+        List<ClipboardItem> items = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                items.add(createItemFromResultSet(rs));
+            }
+        }
+        return items;
+    }
+
+    private ClipboardItem createItemFromResultSet(ResultSet rs) throws SQLException {
+        return createItemFromResultSet(rs, null);
+    }
+
+    /**
+     * Build an item from a row of the live database, or of the given month's archive partition
+     */
+    private ClipboardItem createItemFromResultSet(ResultSet rs, YearMonth archiveMonth) throws SQLException {
+        long id = rs.getLong(COLUMN_ID);
+        ItemType type = ItemType.valueOf(rs.getString(COLUMN_TYPE));
+        LocalDateTime timestamp = fromEpochMillis(rs.getLong(COLUMN_TIMESTAMP));
+        String hash = HashKeys.read(rs, COLUMN_HASH);
+        String category = rs.getString(COLUMN_CATEGORY);
+        boolean pinned = rs.getBoolean(COLUMN_PINNED);
+        String preview = rs.getString(COLUMN_PREVIEW);
+        int contentSize = rs.getInt(COLUMN_CONTENT_SIZE);
+        byte[] thumbnail = rs.getBytes(COLUMN_THUMBNAIL);
+        Set<String> tags = parseTags(rs.getString(COLUMN_TAGS));
+
+        ContentHandle content = archiveMonth == null
+                ? () -> loadContent(id, hash)
+                : () -> loadArchivedContent(archiveMonth, id, hash);
+        ClipboardItem item = new ClipboardItem(type, content, contentSize, preview, thumbnail, timestamp, hash, tags,
+                category, pinned);
+        item.setId(id);
+        return item;
+    }
+
+    /**
+     * Timestamps are stored as the local wall-clock time counted in milliseconds
+     * as if it were UTC. That converts back exactly, with no time zone or DST
+     * lookups, and sorts the same as the ISO strings it replaced.
+     */
+    private static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime fromEpochMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), Math.floorMod(millis, 1000) * 1_000_000,
+                ZoneOffset.UTC);
+    }
+
+    private static Set<String> parseTags(String concatenated) {
+        Set<String> tags = new HashSet<>();
+        if (concatenated != null && !concatenated.isEmpty()) {
+            tags.addAll(Arrays.asList(concatenated.split(TAG_SEPARATOR)));
+        }
+        return tags;
+    }
+
+    /**
+     * Hashes and blob files of deleted rows, cleaned up once the delete has committed
+     */
+    private class RemovedItems {
+        final List<String> hashes = new ArrayList<>();
+        final List<String> blobNames = new ArrayList<>();
+        // The filter current when the rows were deleted; a rebuild after that never saw them
+        HashFilter filter;
+
+        /**
+         * Drop the cached content and filter entries and delete the files. Only
+         * call this after the commit, so nothing can read a row whose file is
+         * already gone, or be told a hash is new while its row still exists.
+         */
+        void release() {
+            itemCache.invalidateAll(hashes);
+            if (filter != null) {
+                hashes.forEach(filter::remove);
+            }
+            blobStore.delete(blobNames);
+        }
+    }
+
+    /**
+     * Run a DELETE ... RETURNING hash, storage, codec statement, recording what
+     * was removed. Returns the number of deleted rows.
+     */
+    private int collectRemoved(PreparedStatement pstmt, RemovedItems removed) throws SQLException {
+        removed.filter = hashFilter;
+        int deletedRows = 0;
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                deletedRows++;
+                String hash = HashKeys.read(rs, COLUMN_HASH);
+                removed.hashes.add(hash);
+                if (STORAGE_BLOB.equals(rs.getString(COLUMN_STORAGE))) {
+                    removed.blobNames.add(PayloadCompression.blobName(hash, rs.getString(COLUMN_CODEC)));
+                }
+            }
+        }
+        return deletedRows;
+    }
+
+    /**
+     * Returns what was removed, for the caller to release once the transaction has committed
+     */
+    private RemovedItems enforceHistoryLimit(PooledConnection conn, int maxItems) throws SQLException {
+        RemovedItems removed = new RemovedItems();
+        long excess = readUnpinnedCount(conn) - maxItems;
+        if (excess <= 0) {
+            return removed;
+        }
+
+        // Don't delete pinned items - only delete unpinned items beyond the limit.
+        // Walking the partial index from the oldest end finds the cutoff in
+        // O(excess), and everything at or below it goes in one range delete
+        PreparedStatement cutoff = conn.prepare(
+                "SELECT id FROM clipboard WHERE pinned = FALSE ORDER BY id ASC LIMIT 1 OFFSET ?");
+        cutoff.setLong(1, excess - 1);
+        long cutoffId;
+        try (ResultSet rs = cutoff.executeQuery()) {
+            if (!rs.next()) {
+                return removed;
+            }
+            cutoffId = rs.getLong(COLUMN_ID);
+        }
+
+        PreparedStatement pstmt = conn.prepare(
+                "DELETE FROM clipboard WHERE pinned = FALSE AND id <= ? RETURNING hash, storage, codec");
+        pstmt.setLong(1, cutoffId);
+        int deletedRows = collectRemoved(pstmt, removed);
+        pruneChangeLog(conn);
+        if (deletedRows > 0) {
+            System.out
+                    .println("Deleted " + deletedRows + " items to enforce history limit (preserved pinned items)");
+        }
+        return removed;
+    }
+
+    /**
+     * Drop the oldest tombstones beyond what the change log keeps, and move
+     * the horizon past them so consumers that still needed them are told to
+     * reload. Runs in the same transaction as the deletes that added them.
+     */
+    private void pruneChangeLog(PooledConnection conn) throws SQLException {
+        PreparedStatement cutoff = conn.prepare(
+                "SELECT seq FROM change_log WHERE op = 'delete' ORDER BY seq DESC LIMIT 1 OFFSET ?");
+        cutoff.setInt(1, MAX_CHANGE_LOG_TOMBSTONES);
+        long cutoffSeq;
+        try (ResultSet rs = cutoff.executeQuery()) {
+            if (!rs.next()) {
+                return;
+            }
+            cutoffSeq = rs.getLong(1);
+        }
+        PreparedStatement delete = conn.prepare("DELETE FROM change_log WHERE op = 'delete' AND seq <= ?");
+        delete.setLong(1, cutoffSeq);
+        delete.executeUpdate();
+        PreparedStatement horizon = conn.prepare(
+                "UPDATE change_log_state SET pruned_through = max(pruned_through, ?) WHERE id = 1");
+        horizon.setLong(1, cutoffSeq);
+        horizon.executeUpdate();
+    }
+
+    /**
+     * Unpinned item count, kept current by triggers on clipboard
+     */
+    private long readUnpinnedCount(PooledConnection conn) throws SQLException {
+        return readHistoryStats(conn)[0];
+    }
+
+    /**
+     * Unpinned item count and total bytes, kept current by triggers on clipboard
+     */
+    private long[] readHistoryStats(PooledConnection conn) throws SQLException {
+        String sql = "SELECT unpinned_count, unpinned_bytes FROM history_stats WHERE id = 1";
+        try (ResultSet rs = conn.prepare(sql).executeQuery()) {
+            return rs.next() ? new long[] {rs.getLong(1), rs.getLong(2)} : new long[2];
+        }
+    }
+
+    /**
+     * Delete up to one batch of unpinned items, highest eviction score first,
+     * until the unpinned history fits in maxBytes. The score is size times
+     * staleness: bytes, with a floor so small items are not free to keep,
+     * times the time since the item was last accessed plus a quarter of its
+     * age. Big items nobody went back to go first; a screenshot copied again
+     * this morning outlives a week-old one that was never touched.
+     *
+     * Returns what was removed, for the caller to release once the transaction has committed.
+     */
+    private RemovedItems evictOverBudget(PooledConnection conn, long maxBytes) throws SQLException {
+        RemovedItems removed = new RemovedItems();
+        long excess = readHistoryStats(conn)[1] - maxBytes;
+        if (excess <= 0) {
+            return removed;
+        }
+
+        String candidates = "SELECT c.id, " + ITEM_BYTES + " AS bytes FROM clipboard c "
+                + "LEFT JOIN item_access a ON a.id = c.id WHERE c.pinned = FALSE "
+                + "ORDER BY (" + ITEM_BYTES + " + 4096.0) "
+                + "* ((?1 - coalesce(a.last_accessed, c.timestamp)) + (?1 - c.timestamp) / 4.0 + 60000.0) DESC "
+                + "LIMIT ?2";
+        PreparedStatement select = conn.prepare(candidates);
+        select.setLong(1, toEpochMillis(LocalDateTime.now()));
+        select.setInt(2, EVICTION_BATCH_SIZE);
+        List<Long> ids = new ArrayList<>();
+        long freed = 0;
+        try (ResultSet rs = select.executeQuery()) {
+            while (freed < excess && rs.next()) {
+                ids.add(rs.getLong(COLUMN_ID));
+                freed += rs.getLong("bytes");
+            }
+        }
+
+        PreparedStatement delete = conn.prepare("DELETE FROM clipboard WHERE id = ? RETURNING hash, storage, codec");
+        for (long id : ids) {
+            delete.setLong(1, id);
+            collectRemoved(delete, removed);
+        }
+        pruneChangeLog(conn);
+        System.out.println("Evicted " + ids.size() + " items (" + freed + " bytes) to stay within the history size budget");
+        return removed;
+    }
+
+    /**
+     * Queue a history trim unless one is already waiting; a burst of captures
+     * then shares a single trim instead of paying for one each
+     */
+    private void scheduleHistoryLimit(int maxItems) {
+        if (!historyLimitQueued.compareAndSet(false, true)) {
+            return;
+        }
+        writeQueue.submit(conn -> {
+            // Captures committed from here on schedule the next trim themselves
+            historyLimitQueued.set(false);
+            return enforceHistoryLimit(conn, maxItems);
+        }).thenAccept(RemovedItems::release)
+                .whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        historyLimitQueued.set(false);
+                        logWriteFailure("Error enforcing history limit", e);
+                    }
+                });
+    }
+
+    /**
+     * Queue eviction down to the byte budget unless a job is already waiting.
+     * Each job deletes one batch in its own transaction and queues the next
+     * if that was not enough, so a large eviction never holds up captures.
+     */
+    private void scheduleByteBudget(long maxBytes) {
+        if (!byteBudgetQueued.compareAndSet(false, true)) {
+            return;
+        }
+        writeQueue.submit(conn -> {
+            byteBudgetQueued.set(false);
+            return evictOverBudget(conn, maxBytes);
+        }).thenAccept(removed -> {
+            removed.release();
+            if (removed.hashes.size() == EVICTION_BATCH_SIZE) {
+                scheduleByteBudget(maxBytes);
+            }
+        }).whenComplete((ignored, e) -> {
+            if (e != null) {
+                byteBudgetQueued.set(false);
+                logWriteFailure("Error enforcing history size budget", e);
+            }
+        });
+    }
+
+    /**
+     * A live row on its way to the archive, with its content as stored:
+     * encoded with its codec, and read back from the blob store if it spilled
+     */
+    private static class ArchivedRow {
+        long id;
+        String type;
+        byte[] stored;
+        long timestamp;
+        String hash;
+        String category;
+        String preview;
+        int contentSize;
+        byte[] thumbnail;
+        String codec;
+        String tags;
+        boolean spilled;
+        boolean chunked;
+        // Decoded content of text and file path items, for the partition's trigram index
+        String text;
+    }
+
+    /**
+     * Move unpinned items captured more than archiveAfterDays ago into the
+     * monthly archive partitions, one batch at a time. Runs on the archive's
+     * own thread; only the final delete of each batch goes through the write
+     * queue, so captures wait for it no longer than for an eviction.
+     */
+    private void archiveOldItems() {
+        int days = archiveAfterDays;
+        if (days <= 0) {
+            return;
+        }
+        long cutoff = toEpochMillis(LocalDateTime.now().minusDays(days));
+        try {
+            while (archiveBatch(cutoff)) {
+                // Keep going while full batches are moved
+            }
+        } catch (SQLException e) {
+            System.err.println("Error archiving old items: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Copy one batch of old items into their partitions, then delete them
+     * from the live database. The copy commits first, so a crash in between
+     * leaves an item in both places, never in neither; searches list such an
+     * item once, and the next pass replaces the archived copy.
+     *
+     * Returns whether a full batch was moved and more may be waiting.
+     */
+    private boolean archiveBatch(long cutoff) throws SQLException {
+        String sql = "SELECT c.id, c.type, c.content, c.timestamp, c.hash, c.category, c.preview, c.content_size, "
+                + "c.thumbnail, c.storage, c.codec, "
+                + "(SELECT group_concat(t.tag, char(31)) FROM item_tags t WHERE t.item_hash = c.hash) AS tags "
+                + "FROM clipboard c WHERE c.pinned = FALSE AND c.timestamp < ? ORDER BY c.timestamp LIMIT ?";
+        long[] seq = new long[1];
+        List<ArchivedRow> rows = pool.read(conn -> {
+            // Rows changed after this point are left live; see deleteArchivedRows
+            seq[0] = currentSeq(conn);
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setLong(1, cutoff);
+            pstmt.setInt(2, ARCHIVE_BATCH_SIZE);
+            List<ArchivedRow> selected = new ArrayList<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ArchivedRow row = new ArchivedRow();
+                    row.id = rs.getLong(COLUMN_ID);
+                    row.type = rs.getString(COLUMN_TYPE);
+                    row.stored = rs.getBytes(COLUMN_CONTENT);
+                    row.timestamp = rs.getLong(COLUMN_TIMESTAMP);
+                    row.hash = HashKeys.read(rs, COLUMN_HASH);
+                    row.category = rs.getString(COLUMN_CATEGORY);
+                    row.preview = rs.getString(COLUMN_PREVIEW);
+                    row.contentSize = rs.getInt(COLUMN_CONTENT_SIZE);
+                    row.thumbnail = rs.getBytes(COLUMN_THUMBNAIL);
+                    row.codec = rs.getString(COLUMN_CODEC);
+                    row.tags = rs.getString(COLUMN_TAGS);
+                    row.spilled = STORAGE_BLOB.equals(rs.getString(COLUMN_STORAGE));
+                    row.chunked = STORAGE_CHUNKED.equals(rs.getString(COLUMN_STORAGE));
+                    selected.add(row);
+                }
+            }
+            return selected;
+        });
+        if (rows.isEmpty()) {
+            return false;
+        }
+        boolean full = rows.size() == ARCHIVE_BATCH_SIZE;
+
+        // Spilled and chunked content comes back inline, up to the batch's memory budget
+        List<ArchivedRow> batch = new ArrayList<>();
+        long bytes = 0;
+        for (ArchivedRow row : rows) {
+            try {
+                byte[] content = null;
+                if (row.spilled) {
+                    row.stored = blobStore.read(PayloadCompression.blobName(row.hash, row.codec));
+                } else if (row.chunked) {
+                    // Partitions have no chunk table, so the whole text is compressed as one
+                    content = readChunkedContent(row.id);
+                    PayloadCompression.Encoded encoded = compression.encode(ItemType.TEXT, content);
+                    row.stored = encoded.getData();
+                    row.codec = encoded.getCodec();
+                }
+                if (isIndexedType(ItemType.valueOf(row.type))) {
+                    row.text = new String(content != null ? content : compression.decode(row.codec, row.stored),
+                            StandardCharsets.UTF_8);
+                }
+            } catch (IOException e) {
+                System.err.println("Cannot archive item whose content is missing: " + e.getMessage());
+                continue;
+            }
+            bytes += row.stored.length + (row.thumbnail != null ? row.thumbnail.length : 0);
+            batch.add(row);
+            if (bytes > ARCHIVE_BATCH_BYTES) {
+                full = true;
+                break;
+            }
+        }
+
+        Map<YearMonth, List<ArchivedRow>> byMonth = new TreeMap<>();
+        for (ArchivedRow row : batch) {
+            byMonth.computeIfAbsent(YearMonth.from(fromEpochMillis(row.timestamp)), m -> new ArrayList<>()).add(row);
+        }
+        for (Map.Entry<YearMonth, List<ArchivedRow>> partition : byMonth.entrySet()) {
+            archive.write(partition.getKey(), (month, conn) -> writeArchivedRows(conn, partition.getValue()));
+        }
+
+        RemovedItems removed = writeQueue.submit(conn -> deleteArchivedRows(conn, batch, seq[0])).join();
+        removed.release();
+        archive.recordArchived(removed.hashes.size());
+
+        // Rows pinned or edited meanwhile stay live; drop their archived copies
+        Set<String> deleted = new HashSet<>(removed.hashes);
+        for (Map.Entry<YearMonth, List<ArchivedRow>> partition : byMonth.entrySet()) {
+            List<ArchivedRow> kept = partition.getValue().stream().filter(row -> !deleted.contains(row.hash)).toList();
+            if (!kept.isEmpty()) {
+                archive.write(partition.getKey(), (month, conn) -> deleteArchivedCopies(conn, kept));
+            }
+        }
+        if (!removed.hashes.isEmpty()) {
+            System.out.println("Archived " + removed.hashes.size() + " items older than " + archiveAfterDays + " days");
+        }
+        return full && !removed.hashes.isEmpty();
+    }
+
+    private byte[] readChunkedContent(long id) throws SQLException, IOException {
+        List<PayloadCompression.Encoded> chunks = pool.read(conn -> {
+            PreparedStatement read = conn.prepare(ChunkStore.SQL_READ_BY_ID);
+            read.setLong(1, id);
+            return ChunkStore.read(read);
+        });
+        if (chunks.isEmpty()) {
+            throw new IOException("No chunks stored for item " + id);
+        }
+        return chunkStore.assemble(chunks);
+    }
+
+    private static Void writeArchivedRows(Connection conn, List<ArchivedRow> rows) throws SQLException {
+        conn.setAutoCommit(false);
+        try (PreparedStatement pstmt = conn.prepareStatement(HistoryArchive.INSERT_ITEM);
+                PreparedStatement unindex = conn.prepareStatement(HistoryArchive.DELETE_TRIGRAM);
+                PreparedStatement index = conn.prepareStatement(HistoryArchive.INSERT_TRIGRAM)) {
+            for (ArchivedRow row : rows) {
+                if (row.text != null) {
+                    // A copy left by an earlier pass that stopped halfway is replaced below
+                    unindex.setLong(1, row.id);
+                    unindex.executeUpdate();
+                    index.setLong(1, row.id);
+                    index.setString(2, row.text);
+                    index.executeUpdate();
+                }
+                pstmt.setLong(1, row.id);
+                pstmt.setString(2, row.type);
+                pstmt.setBytes(3, row.stored);
+                pstmt.setLong(4, row.timestamp);
+                HashKeys.bind(pstmt, 5, row.hash);
+                pstmt.setString(6, row.category);
+                pstmt.setString(7, row.preview);
+                pstmt.setInt(8, row.contentSize);
+                pstmt.setBytes(9, row.thumbnail);
+                pstmt.setString(10, row.codec);
+                pstmt.setString(11, row.tags);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        return null;
+    }
+
+    private static Void deleteArchivedCopies(Connection conn, List<ArchivedRow> rows) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM items WHERE id = ?")) {
+            for (ArchivedRow row : rows) {
+                pstmt.setLong(1, row.id);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        return null;
+    }
+
+    /**
+     * Delete the archived rows from the live database, except any pinned or
+     * changed since they were read at the given change sequence number, whose
+     * archived copy would be out of date. Returns what was removed, for the
+     * caller to release once the transaction has committed.
+     */
+    private RemovedItems deleteArchivedRows(PooledConnection conn, List<ArchivedRow> rows, long seq)
+            throws SQLException {
+        RemovedItems removed = new RemovedItems();
+        PreparedStatement delete = conn.prepare("""
+                DELETE FROM clipboard WHERE id = ? AND pinned = FALSE
+                AND coalesce((SELECT seq FROM change_log WHERE item_hash = clipboard.hash), 0) <= ?
+                RETURNING hash, storage, codec
+                """);
+        for (ArchivedRow row : rows) {
+            delete.setLong(1, row.id);
+            delete.setLong(2, seq);
+            collectRemoved(delete, removed);
+        }
+        pruneChangeLog(conn);
+        return removed;
+    }
+
+    /**
+     * Remove blob files that no row references any more, left behind when the
+     * app stopped between a commit and the file cleanup, or by a rolled back save.
+     * Blobs of saves still waiting in the write queue are kept.
+     *
+     * The directory is listed and checked against a reader connection first;
+     * only the files that look orphaned are checked again and deleted on the
+     * write queue, so the writer is never held for the walk.
+     */
+    public int sweepOrphanBlobs() {
+        try {
+            int removed = blobStore.deleteTempFiles();
+            List<String> names = blobStore.list();
+            List<String> unreferenced = pool.read(conn -> findUnreferencedBlobs(conn, names));
+            if (!unreferenced.isEmpty()) {
+                // Checked again where no save can commit in between; a save
+                // staged since the listing has added its blob to pendingBlobs
+                removed += writeAndWait(conn -> blobStore.delete(findUnreferencedBlobs(conn, unreferenced)));
+            }
+            if (removed > 0) {
+                System.out.println("Removed " + removed + " orphaned blob files");
+            }
+            return removed;
+        } catch (SQLException e) {
+            System.err.println("Failed to sweep blob store: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private List<String> findUnreferencedBlobs(PooledConnection conn, List<String> names) throws SQLException {
+        PreparedStatement pstmt = conn.prepare("SELECT 1 FROM clipboard WHERE hash = ? AND storage = 'blob' AND codec = ?");
+        List<String> unreferenced = new ArrayList<>();
+        for (String name : names) {
+            if (pendingBlobs.contains(name)) {
+                continue;
+            }
+            // Names are hash or hash.codec (see PayloadCompression.blobName)
+            int dot = name.indexOf('.');
+            boolean referenced = dot < 0
+                    ? blobRowExists(pstmt, name, PayloadCompression.NONE)
+                    : blobRowExists(pstmt, name.substring(0, dot), name.substring(dot + 1));
+            if (!referenced) {
+                unreferenced.add(name);
+            }
+        }
+        return unreferenced;
+    }
+
+    private static boolean blobRowExists(PreparedStatement pstmt, String hash, String codec) throws SQLException {
+        HashKeys.bind(pstmt, 1, hash);
+        pstmt.setString(2, codec);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    private void migrate(PooledConnection conn, int currentVersion) throws SQLException {
+        System.out.println("Migrating database from version " + currentVersion + " to " + CURRENT_DB_VERSION);
+        performMigrations(conn.getConnection(), currentVersion);
+        setDatabaseVersion(conn, CURRENT_DB_VERSION);
+        System.out.println("Database migration completed successfully");
+        if (currentVersion < 12) {
+            applyAutoVacuumMode(conn);
+        }
+    }
+
+    private int getDatabaseVersion(PooledConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private void setDatabaseVersion(PooledConnection conn, int version) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA user_version = " + version);
+        }
+    }
+
+    private void performMigrations(Connection conn, int fromVersion) throws SQLException {
+        conn.setAutoCommit(false);
+
+        try {
+            switch (fromVersion) {
+                case 0:
+                    migrateToVersion1(conn);
+                    System.out.println("Applied migration to version 1");
+                    // fall through
+                case 1:
+                    migrateToVersion2(conn);
+                    System.out.println("Applied migration to version 2");
+                    // fall through
+                case 2:
+                    migrateToVersion3(conn);
+                    System.out.println("Applied migration to version 3");
+                    // fall through
+                case 3:
+                    migrateToVersion4(conn);
+                    System.out.println("Applied migration to version 4");
+                    // fall through
+                case 4:
+                    migrateToVersion5(conn);
+                    System.out.println("Applied migration to version 5");
+                    // fall through
+                case 5:
+                    migrateToVersion6(conn);
+                    System.out.println("Applied migration to version 6");
+                    // fall through
+                case 6:
+                    migrateToVersion7(conn);
+                    System.out.println("Applied migration to version 7");
+                    // fall through
+                case 7:
+                    migrateToVersion8(conn);
+                    System.out.println("Applied migration to version 8");
+                    // fall through
+                case 8:
+                    migrateToVersion9(conn);
+                    System.out.println("Applied migration to version 9");
+                    // fall through
+                case 9:
+                    migrateToVersion10(conn);
+                    System.out.println("Applied migration to version 10");
+                    // fall through
+                case 10:
+                    migrateToVersion11(conn);
+                    System.out.println("Applied migration to version 11");
+                    // fall through
+                case 11:
+                    migrateToVersion12(conn);
+                    System.out.println("Applied migration to version 12");
+                    // fall through
+                case 12:
+                    migrateToVersion13(conn);
+                    System.out.println("Applied migration to version 13");
+                    // fall through
+                case 13:
+                    migrateToVersion14(conn);
+                    System.out.println("Applied migration to version 14");
+                    // fall through
+                case 14:
+                    migrateToVersion15(conn);
+                    System.out.println("Applied migration to version 15");
+                    // fall through
+                case 15:
+                    migrateToVersion16(conn);
+                    System.out.println("Applied migration to version 16");
+                    // fall through
+                case 16:
+                    migrateToVersion17(conn);
+                    System.out.println("Applied migration to version 17");
+                    // fall through
+                case 17:
+                    migrateToVersion18(conn);
+                    System.out.println("Applied migration to version 18");
+                    // fall through
+                case 18:
+                    migrateToVersion19(conn);
+                    System.out.println("Applied migration to version 19");
+                    // fall through
+                case 19:
+                    migrateToVersion20(conn);
+                    System.out.println("Applied migration to version 20");
+                    // fall through
+                default:
+                    // All migrations complete
+                    break;
+            }
+
+            conn.commit();
+            System.out.println("All migrations applied successfully");
+
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("Migration failed, rolling back: " + e.getMessage(), e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private void migrateToVersion1(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            DatabaseMetaData metaData = conn.getMetaData();
+            ResultSet columns = metaData.getColumns(null, null, "clipboard", COLUMN_CATEGORY);
+
+            if (!columns.next()) {
+                stmt.execute("ALTER TABLE clipboard ADD COLUMN category TEXT NOT NULL DEFAULT 'General'");
+                System.out.println("Migration v1: Added category column");
+            }
+            columns.close();
+        }
+    }
+
+    private void migrateToVersion2(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("""
+                        CREATE TABLE IF NOT EXISTS item_tags (
+                            item_hash TEXT NOT NULL,
+                            tag TEXT NOT NULL,
+                            PRIMARY KEY (item_hash, tag),
+                            FOREIGN KEY (item_hash) REFERENCES clipboard(hash)
+                        )
+                    """);
+            System.out.println("Migration v2: Created item_tags table");
+        }
+    }
+
+    private void migrateToVersion3(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE clipboard ADD COLUMN pinned BOOLEAN NOT NULL DEFAULT FALSE");
+            System.out.println("Migration v3: Added pinned column");
+        }
+    }
+
+    private void migrateToVersion4(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE clipboard ADD COLUMN preview TEXT");
+            stmt.execute("ALTER TABLE clipboard ADD COLUMN content_size INTEGER NOT NULL DEFAULT 0");
+            stmt.execute("ALTER TABLE clipboard ADD COLUMN thumbnail BLOB");
+            stmt.execute("""
+                    UPDATE clipboard SET
+                        content_size = length(content),
+                        preview = CASE WHEN type = 'IMAGE' THEN NULL ELSE substr(CAST(content AS TEXT), 1, 200) END
+                    """);
+        }
+
+        // Thumbnails need an image decoder, so existing images are converted one row at a time
+        int thumbnails = 0;
+        try (PreparedStatement select = conn.prepareStatement("SELECT id, content FROM clipboard WHERE type = 'IMAGE'");
+                PreparedStatement update = conn.prepareStatement("UPDATE clipboard SET thumbnail = ? WHERE id = ?");
+                ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                update.setBytes(1, Thumbnails.createPng(rs.getBytes(COLUMN_CONTENT)));
+                update.setLong(2, rs.getLong(COLUMN_ID));
+                update.executeUpdate();
+                thumbnails++;
+            }
+        }
+        System.out.println("Migration v4: Added preview, content size and thumbnail columns (" + thumbnails + " thumbnails)");
+    }
+
+    private void migrateToVersion5(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE clipboard ADD COLUMN storage TEXT NOT NULL DEFAULT 'inline'");
+        }
+
+        // Move existing large items out of the table; the space is reclaimed on the next VACUUM
+        int spilled = 0;
+        try (PreparedStatement select = conn.prepareStatement(
+                        "SELECT id, hash, content FROM clipboard WHERE length(content) > ?");
+                PreparedStatement update = conn.prepareStatement(
+                        "UPDATE clipboard SET content = zeroblob(0), storage = 'blob' WHERE id = ?")) {
+            select.setInt(1, BlobStore.SPILL_THRESHOLD_BYTES);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    if (spillToBlobStore(rs.getString(COLUMN_HASH), rs.getBytes(COLUMN_CONTENT))) {
+                        update.setLong(1, rs.getLong(COLUMN_ID));
+                        update.executeUpdate();
+                        spilled++;
+                    }
+                }
             }
+        }
+        System.out.println("Migration v5: Added storage column (" + spilled + " items moved to " + blobStore.getRoot() + ")");
+    }
 
-            conn.commit();
-            System.out.println("All migrations applied successfully");
+    private void migrateToVersion6(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // Contentless: the text already lives in clipboard (or the blob store), so
+            // the index keeps only tokens, keyed by clipboard.id as its rowid
+            stmt.execute("""
+                    CREATE VIRTUAL TABLE IF NOT EXISTS clipboard_fts USING fts5(
+                        body,
+                        content = '',
+                        contentless_delete = 1,
+                        tokenize = 'unicode61 remove_diacritics 2'
+                    )
+                    """);
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS clipboard_fts_insert AFTER INSERT ON clipboard
+                    WHEN new.type IN ('TEXT', 'FILE_PATH') AND new.storage = 'inline'
+                    BEGIN
+                        INSERT INTO clipboard_fts(rowid, body) VALUES (new.id, CAST(new.content AS TEXT));
+                    END
+                    """);
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS clipboard_fts_delete AFTER DELETE ON clipboard
+                    WHEN old.type IN ('TEXT', 'FILE_PATH')
+                    BEGIN
+                        DELETE FROM clipboard_fts WHERE rowid = old.id;
+                    END
+                    """);
+            stmt.execute("""
+                    INSERT INTO clipboard_fts(rowid, body)
+                    SELECT id, CAST(content AS TEXT) FROM clipboard
+                    WHERE type IN ('TEXT', 'FILE_PATH') AND storage = 'inline'
+                    """);
+        }
 
-        } catch (SQLException e) {
-            conn.rollback();
-            throw new SQLException("Migration failed, rolling back: " + e.getMessage(), e);
-        } finally {
-            conn.setAutoCommit(true);
+        int spilled = indexSpilledRows(conn, "clipboard_fts");
+        System.out.println("Migration v6: Created full-text index (" + spilled + " spilled items indexed)");
+    }
+
+    private void migrateToVersion7(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // Every three-character window of the text, case-folded, so any
+            // substring of three or more characters can be found as a phrase
+            stmt.execute("""
+                    CREATE VIRTUAL TABLE IF NOT EXISTS clipboard_trigram USING fts5(
+                        body,
+                        content = '',
+                        contentless_delete = 1,
+                        tokenize = 'trigram case_sensitive 0'
+                    )
+                    """);
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS clipboard_trigram_insert AFTER INSERT ON clipboard
+                    WHEN new.type IN ('TEXT', 'FILE_PATH') AND new.storage = 'inline'
+                    BEGIN
+                        INSERT INTO clipboard_trigram(rowid, body) VALUES (new.id, CAST(new.content AS TEXT));
+                    END
+                    """);
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS clipboard_trigram_delete AFTER DELETE ON clipboard
+                    WHEN old.type IN ('TEXT', 'FILE_PATH')
+                    BEGIN
+                        DELETE FROM clipboard_trigram WHERE rowid = old.id;
+                    END
+                    """);
+            stmt.execute("""
+                    INSERT INTO clipboard_trigram(rowid, body)
+                    SELECT id, CAST(content AS TEXT) FROM clipboard
+                    WHERE type IN ('TEXT', 'FILE_PATH') AND storage = 'inline'
+                    """);
         }
+
+        int spilled = indexSpilledRows(conn, "clipboard_trigram");
+        System.out.println("Migration v7: Created trigram substring index (" + spilled + " spilled items indexed)");
     }
 
-    private void migrateToVersion1(Connection conn) throws SQLException {
+    private void migrateToVersion8(Connection conn) throws SQLException {
         try (Statement stmt = conn.createStatement()) {
-            DatabaseMetaData metaData = conn.getMetaData();
-            ResultSet columns = metaData.getColumns(null, null, "clipboard", COLUMN_CATEGORY);
+            // Only unpinned rows are ever trimmed, so only they need to be in the index
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_clipboard_unpinned_id ON clipboard(id) WHERE pinned = FALSE");
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS history_stats (
+                        id INTEGER PRIMARY KEY CHECK (id = 1),
+                        unpinned_count INTEGER NOT NULL
+                    )
+                    """);
+            stmt.execute("""
+                    INSERT OR REPLACE INTO history_stats(id, unpinned_count)
+                    VALUES (1, (SELECT count(*) FROM clipboard WHERE pinned = FALSE))
+                    """);
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS history_stats_insert AFTER INSERT ON clipboard
+                    WHEN new.pinned = FALSE
+                    BEGIN
+                        UPDATE history_stats SET unpinned_count = unpinned_count + 1 WHERE id = 1;
+                    END
+                    """);
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS history_stats_delete AFTER DELETE ON clipboard
+                    WHEN old.pinned = FALSE
+                    BEGIN
+                        UPDATE history_stats SET unpinned_count = unpinned_count - 1 WHERE id = 1;
+                    END
+                    """);
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS history_stats_pin AFTER UPDATE OF pinned ON clipboard
+                    WHEN old.pinned <> new.pinned
+                    BEGIN
+                        UPDATE history_stats
+                        SET unpinned_count = unpinned_count + CASE WHEN new.pinned THEN -1 ELSE 1 END
+                        WHERE id = 1;
+                    END
+                    """);
+            System.out.println("Migration v8: Added unpinned history index and count");
+        }
+    }
 
-            if (!columns.next()) {
-                stmt.execute("ALTER TABLE clipboard ADD COLUMN category TEXT NOT NULL DEFAULT 'General'");
-                System.out.println("Migration v1: Added category column");
+    private void migrateToVersion9(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // Tag lookups and the tag list; the primary key leads with item_hash, so it serves neither
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_item_tags_tag ON item_tags(tag, item_hash)");
+            // Category lookups, filtered pages in id order, and the category list
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_clipboard_category ON clipboard(category, id)");
+            // Pinned items are few, so partial indexes keep them in timestamp order for the
+            // pinned list and in id order for pinned history pages at almost no cost
+            stmt.execute("""
+                    CREATE INDEX IF NOT EXISTS idx_clipboard_pinned_timestamp
+                    ON clipboard(timestamp) WHERE pinned = TRUE
+                    """);
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_clipboard_pinned_id ON clipboard(id) WHERE pinned = TRUE");
+            System.out.println("Migration v9: Added category, tag and pinned item indexes");
+        }
+    }
+
+    private void migrateToVersion10(Connection conn) throws SQLException {
+        // SQLite cannot change a column's type, so both tables are rebuilt and
+        // their indexes and triggers recreated from the schema as it stands
+        List<String> dependents = new ArrayList<>();
+        long sequence = 0;
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("""
+                    SELECT sql FROM sqlite_schema
+                    WHERE tbl_name IN ('clipboard', 'item_tags') AND type IN ('index', 'trigger') AND sql IS NOT NULL
+                    """)) {
+                while (rs.next()) {
+                    dependents.add(rs.getString(1));
+                }
             }
-            columns.close();
+            try (ResultSet rs = stmt.executeQuery("SELECT seq FROM sqlite_sequence WHERE name = 'clipboard'")) {
+                if (rs.next()) {
+                    sequence = rs.getLong(1);
+                }
+            }
+
+            // content goes last, so reading the metadata columns never walks a large value's overflow pages
+            stmt.execute("""
+                    CREATE TABLE clipboard_new (
+                        id INTEGER PRIMARY KEY AUTOINCREMENT,
+                        type TEXT NOT NULL,
+                        timestamp INTEGER NOT NULL,
+                        hash BLOB NOT NULL UNIQUE,
+                        category TEXT NOT NULL DEFAULT 'General',
+                        pinned BOOLEAN NOT NULL DEFAULT FALSE,
+                        storage TEXT NOT NULL DEFAULT 'inline',
+                        content_size INTEGER NOT NULL DEFAULT 0,
+                        preview TEXT,
+                        thumbnail BLOB,
+                        content BLOB NOT NULL
+                    )
+                    """);
+            // Same arithmetic as toEpochMillis: SQLite reads the ISO string as UTC
+            stmt.execute("""
+                    INSERT INTO clipboard_new(id, type, timestamp, hash, category, pinned, storage, content_size,
+                                              preview, thumbnail, content)
+                    SELECT id, type, coalesce(CAST(round(unixepoch(timestamp, 'subsec') * 1000) AS INTEGER), 0),
+                           %s, category, pinned, storage, content_size, preview, thumbnail, content
+                    FROM clipboard
+                    """.formatted(HashKeys.packExpression(COLUMN_HASH)));
+            // The tags are only ever reached through their key, so the rowid is dropped
+            stmt.execute("""
+                    CREATE TABLE item_tags_new (
+                        item_hash BLOB NOT NULL,
+                        tag TEXT NOT NULL,
+                        PRIMARY KEY (item_hash, tag),
+                        FOREIGN KEY (item_hash) REFERENCES clipboard(hash)
+                    ) WITHOUT ROWID
+                    """);
+            stmt.execute("""
+                    INSERT OR IGNORE INTO item_tags_new(item_hash, tag)
+                    SELECT %s, tag FROM item_tags
+                    """.formatted(HashKeys.packExpression("item_hash")));
+
+            stmt.execute("DROP TABLE item_tags");
+            stmt.execute("DROP TABLE clipboard");
+            stmt.execute("ALTER TABLE clipboard_new RENAME TO clipboard");
+            stmt.execute("ALTER TABLE item_tags_new RENAME TO item_tags");
+            for (String sql : dependents) {
+                stmt.execute(sql);
+            }
+        }
+
+        // Keep AUTOINCREMENT from handing out ids of items deleted before the rebuild
+        try (Statement stmt = conn.createStatement();
+                PreparedStatement pstmt = conn.prepareStatement("""
+                        INSERT INTO sqlite_sequence(name, seq)
+                        VALUES ('clipboard', max(?, (SELECT coalesce(max(id), 0) FROM clipboard)))
+                        """)) {
+            stmt.execute("DELETE FROM sqlite_sequence WHERE name = 'clipboard'");
+            pstmt.setLong(1, sequence);
+            pstmt.executeUpdate();
         }
+        System.out.println("Migration v10: Stored timestamps as epoch milliseconds and hashes as binary");
     }
 
-    private void migrateToVersion2(Connection conn) throws SQLException {
+    private void migrateToVersion11(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // Existing rows keep their content as is; only new items are compressed
+            stmt.execute("ALTER TABLE clipboard ADD COLUMN codec TEXT NOT NULL DEFAULT 'none'");
+            // The index triggers cast the content column to text, which only works uncompressed
+            for (String index : new String[] {"clipboard_fts", "clipboard_trigram"}) {
+                stmt.execute("DROP TRIGGER IF EXISTS " + index + "_insert");
+                stmt.execute("""
+                        CREATE TRIGGER %1$s_insert AFTER INSERT ON clipboard
+                        WHEN new.type IN ('TEXT', 'FILE_PATH') AND new.storage = 'inline' AND new.codec = 'none'
+                        BEGIN
+                            INSERT INTO %1$s(rowid, body) VALUES (new.id, CAST(new.content AS TEXT));
+                        END
+                        """.formatted(index));
+            }
+            System.out.println("Migration v11: Added per-item compression codec");
+        }
+    }
+
+    private void migrateToVersion12(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // Recorded now, but an existing database only switches over when it
+            // is rebuilt, which applyAutoVacuumMode does after the commit
+            stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            System.out.println("Migration v12: Enabled incremental auto-vacuum");
+        }
+    }
+
+    private void migrateToVersion13(Connection conn) throws SQLException {
         try (Statement stmt = conn.createStatement()) {
+            // Last access lives in a small table of its own rather than a column
+            // appended after content, so scoring the history for eviction never
+            // steps over large inline content to reach it. Items never accessed
+            // have no row and count from their capture time.
             stmt.execute("""
-                        CREATE TABLE IF NOT EXISTS item_tags (
-                            item_hash TEXT NOT NULL,
-                            tag TEXT NOT NULL,
-                            PRIMARY KEY (item_hash, tag),
-                            FOREIGN KEY (item_hash) REFERENCES clipboard(hash)
-                        )
+                    CREATE TABLE IF NOT EXISTS item_access (
+                        id INTEGER PRIMARY KEY,
+                        last_accessed INTEGER NOT NULL
+                    )
                     """);
-            System.out.println("Migration v2: Created item_tags table");
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS item_access_delete AFTER DELETE ON clipboard
+                    BEGIN
+                        DELETE FROM item_access WHERE id = old.id;
+                    END
+                    """);
+
+            // Keep the byte total of unpinned items next to their count
+            stmt.execute("ALTER TABLE history_stats ADD COLUMN unpinned_bytes INTEGER NOT NULL DEFAULT 0");
+            stmt.execute("UPDATE history_stats SET unpinned_bytes = (SELECT coalesce(sum(" + ITEM_BYTES
+                    + "), 0) FROM clipboard c WHERE c.pinned = FALSE) WHERE id = 1");
+            for (String trigger : new String[] {"history_stats_insert", "history_stats_delete", "history_stats_pin"}) {
+                stmt.execute("DROP TRIGGER IF EXISTS " + trigger);
+            }
+            stmt.execute("""
+                    CREATE TRIGGER history_stats_insert AFTER INSERT ON clipboard
+                    WHEN new.pinned = FALSE
+                    BEGIN
+                        UPDATE history_stats
+                        SET unpinned_count = unpinned_count + 1, unpinned_bytes = unpinned_bytes + %s
+                        WHERE id = 1;
+                    END
+                    """.formatted(ITEM_BYTES.replace("c.", "new.")));
+            stmt.execute("""
+                    CREATE TRIGGER history_stats_delete AFTER DELETE ON clipboard
+                    WHEN old.pinned = FALSE
+                    BEGIN
+                        UPDATE history_stats
+                        SET unpinned_count = unpinned_count - 1, unpinned_bytes = unpinned_bytes - %s
+                        WHERE id = 1;
+                    END
+                    """.formatted(ITEM_BYTES.replace("c.", "old.")));
+            stmt.execute("""
+                    CREATE TRIGGER history_stats_pin AFTER UPDATE OF pinned ON clipboard
+                    WHEN old.pinned <> new.pinned
+                    BEGIN
+                        UPDATE history_stats
+                        SET unpinned_count = unpinned_count + CASE WHEN new.pinned THEN -1 ELSE 1 END,
+                            unpinned_bytes = unpinned_bytes + CASE WHEN new.pinned THEN -1 ELSE 1 END * %s
+                        WHERE id = 1;
+                    END
+                    """.formatted(ITEM_BYTES.replace("c.", "new.")));
+            System.out.println("Migration v13: Added item access times and history byte total");
         }
     }
 
-    private void migrateToVersion3(Connection conn) throws SQLException {
+    private void migrateToVersion14(Connection conn) throws SQLException {
         try (Statement stmt = conn.createStatement()) {
-            stmt.execute("ALTER TABLE clipboard ADD COLUMN pinned BOOLEAN NOT NULL DEFAULT FALSE");
-            System.out.println("Migration v3: Added pinned column");
+            stmt.execute("ALTER TABLE item_access ADD COLUMN frecency REAL NOT NULL DEFAULT 0");
+            // Items accessed so far are credited with a single access at their last access time
+            stmt.execute("UPDATE item_access SET frecency = last_accessed / " + AccessTracker.HALF_LIFE_MILLIS
+                    + " * ln(2)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_item_access_frecency ON item_access(frecency)");
+            System.out.println("Migration v14: Added frecency ranking");
+        }
+    }
+
+    private void migrateToVersion15(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // One row per item holding its latest change: replacing the row on
+            // every change moves the item to the end of the sequence, so the log
+            // stays as large as the history plus the tombstones of recent deletes.
+            // AUTOINCREMENT keeps sequence numbers from being reused after the
+            // newest rows are deleted.
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS change_log (
+                        seq INTEGER PRIMARY KEY AUTOINCREMENT,
+                        item_hash BLOB NOT NULL UNIQUE,
+                        op TEXT NOT NULL
+                    )
+                    """);
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_change_log_tombstones ON change_log(seq) WHERE op = 'delete'");
+            // Highest sequence number whose tombstone has been pruned
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS change_log_state (
+                        id INTEGER PRIMARY KEY CHECK (id = 1),
+                        pruned_through INTEGER NOT NULL
+                    )
+                    """);
+            stmt.execute("INSERT OR IGNORE INTO change_log_state(id, pruned_through) VALUES (1, 0)");
+
+            String record = "INSERT OR REPLACE INTO change_log(item_hash, op) VALUES (%s, '%s');";
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS change_log_insert AFTER INSERT ON clipboard
+                    BEGIN %s END
+                    """.formatted(record.formatted("new.hash", "insert")));
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS change_log_delete AFTER DELETE ON clipboard
+                    BEGIN %s END
+                    """.formatted(record.formatted("old.hash", "delete")));
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS change_log_pin AFTER UPDATE OF pinned ON clipboard
+                    WHEN old.pinned <> new.pinned
+                    BEGIN %s END
+                    """.formatted(record.formatted("new.hash", "pin")));
+            // Tag edits always rewrite the category too, so this also covers them
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS change_log_category AFTER UPDATE OF category ON clipboard
+                    BEGIN %s END
+                    """.formatted(record.formatted("new.hash", "update")));
+            // Tags merged into an existing item by import
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS change_log_tag_insert AFTER INSERT ON item_tags
+                    BEGIN %s END
+                    """.formatted(record.formatted("new.item_hash", "update")));
+            System.out.println("Migration v15: Added change log");
+        }
+    }
+
+    private void migrateToVersion16(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // Finds the oldest unpinned items for the archiver without reading the whole history
+            stmt.execute("""
+                    CREATE INDEX IF NOT EXISTS idx_clipboard_unpinned_timestamp
+                    ON clipboard(timestamp) WHERE pinned = FALSE
+                    """);
+            System.out.println("Migration v16: Added index for archiving old items");
+        }
+    }
+
+    private void migrateToVersion17(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // Existing rows keep their content as is; only new large text items are chunked
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS content_chunks (
+                        id INTEGER PRIMARY KEY,
+                        hash BLOB NOT NULL UNIQUE,
+                        codec TEXT NOT NULL,
+                        size INTEGER NOT NULL,
+                        data BLOB NOT NULL
+                    )
+                    """);
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS item_chunks (
+                        item_id INTEGER NOT NULL,
+                        position INTEGER NOT NULL,
+                        chunk_id INTEGER NOT NULL,
+                        PRIMARY KEY (item_id, position)
+                    ) WITHOUT ROWID
+                    """);
+            // For the trigger below to tell whether a chunk is still used
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_item_chunks_chunk ON item_chunks(chunk_id)");
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS clipboard_chunks_delete AFTER DELETE ON clipboard
+                    WHEN old.storage = 'chunked'
+                    BEGIN
+                        DELETE FROM item_chunks WHERE item_id = old.id;
+                    END
+                    """);
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS item_chunks_delete AFTER DELETE ON item_chunks
+                    WHEN NOT EXISTS (SELECT 1 FROM item_chunks WHERE chunk_id = old.chunk_id)
+                    BEGIN
+                        DELETE FROM content_chunks WHERE id = old.chunk_id;
+                    END
+                    """);
+            System.out.println("Migration v17: Added shared chunk storage for large text items");
+        }
+    }
+
+    private void migrateToVersion18(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // A small table of its own, like item_access, so band lookups never
+            // read clipboard rows. Items stored before now are signed in the
+            // background after startup (see backfillSignatures).
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS text_signatures (
+                        id INTEGER PRIMARY KEY,
+                        simhash INTEGER NOT NULL,
+                        band0 INTEGER NOT NULL,
+                        band1 INTEGER NOT NULL,
+                        band2 INTEGER NOT NULL,
+                        band3 INTEGER NOT NULL
+                    )
+                    """);
+            for (int band = 0; band < TextSignature.BANDS; band++) {
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_text_signatures_band%1$d ON text_signatures(band%1$d)"
+                        .formatted(band));
+            }
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS text_signatures_delete AFTER DELETE ON clipboard
+                    WHEN old.type = 'TEXT'
+                    BEGIN
+                        DELETE FROM text_signatures WHERE id = old.id;
+                    END
+                    """);
+            System.out.println("Migration v18: Added text signatures for near-duplicate lookups");
+        }
+    }
+
+    private void migrateToVersion19(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // Laid out like text_signatures, with the 256-bit dHash as a blob and
+            // each of its 64-bit words as a band. Images stored before now are
+            // signed from their thumbnails in the background after startup.
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS image_signatures (
+                        id INTEGER PRIMARY KEY,
+                        dhash BLOB NOT NULL,
+                        band0 INTEGER NOT NULL,
+                        band1 INTEGER NOT NULL,
+                        band2 INTEGER NOT NULL,
+                        band3 INTEGER NOT NULL
+                    )
+                    """);
+            for (int band = 0; band < ImageSignature.BANDS; band++) {
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_image_signatures_band%1$d ON image_signatures(band%1$d)"
+                        .formatted(band));
+            }
+            stmt.execute("""
+                    CREATE TRIGGER IF NOT EXISTS image_signatures_delete AFTER DELETE ON clipboard
+                    WHEN old.type = 'IMAGE'
+                    BEGIN
+                        DELETE FROM image_signatures WHERE id = old.id;
+                    END
+                    """);
+            System.out.println("Migration v19: Added image signatures for near-duplicate lookups");
+        }
+    }
+
+    private void migrateToVersion20(Connection conn) throws SQLException {
+        // Blob names are checked now (see BlobStore), so content spilled under a
+        // hash from another device that does not pass moves back inline
+        int moved = 0;
+        try (PreparedStatement select = conn.prepareStatement(
+                        "SELECT id, hash, codec FROM clipboard WHERE storage = 'blob'");
+                PreparedStatement update = conn.prepareStatement(
+                        "UPDATE clipboard SET content = ?, storage = 'inline' WHERE id = ?");
+                ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                String name = PayloadCompression.blobName(HashKeys.read(rs, COLUMN_HASH), rs.getString(COLUMN_CODEC));
+                if (BlobStore.isValidName(name)) {
+                    continue;
+                }
+                try {
+                    update.setBytes(1, blobStore.readLegacy(name));
+                    update.setLong(2, rs.getLong(COLUMN_ID));
+                    update.executeUpdate();
+                    moved++;
+                } catch (IOException e) {
+                    System.err.println("Skipping unreadable blob while moving it inline: " + e.getMessage());
+                }
+            }
+        }
+        System.out.println("Migration v20: Moved " + moved + " items with unchecked hashes out of the blob store");
+    }
+
+    /**
+     * Rebuild the database with VACUUM if it is not in incremental auto-vacuum
+     * mode yet. VACUUM cannot run inside the migration transaction, and it
+     * also hands back the pages freed by earlier migrations. It goes through
+     * the WAL, so the WAL is truncated again afterwards.
+     */
+    private void applyAutoVacuumMode(PooledConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA auto_vacuum")) {
+                // 2 is INCREMENTAL
+                if (rs.next() && rs.getInt(1) == 2) {
+                    return;
+                }
+            }
+            long start = System.nanoTime();
+            stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            stmt.execute("VACUUM");
+            stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+            System.out.printf("Rebuilt database for incremental auto-vacuum in %d ms%n",
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Warn if any hot query would read a whole table, e.g. because an index
+     * was dropped or a query was changed so it can no longer use one
+     */
+    private void checkQueryPlans() {
+        Map<String, String> queries = new LinkedHashMap<>();
+        queries.put("items by tag", SQL_ITEMS_BY_TAG);
+        queries.put("items by category", SQL_ITEMS_BY_CATEGORY);
+        queries.put("pinned items", SQL_PINNED_ITEMS);
+        queries.put("top items by frecency", SQL_TOP_BY_FRECENCY);
+        queries.put("all tags", SQL_ALL_TAGS);
+        queries.put("all categories", SQL_ALL_CATEGORIES);
+        queries.put("near duplicate candidates", SQL_NEAR_DUPLICATE_CANDIDATES);
+        queries.put("near duplicate image candidates", SQL_IMAGE_NEAR_DUPLICATE_CANDIDATES);
+
+        // The unfiltered page walks the rowid and stops at its limit, so only filtered pages are checked
+        HistoryFilter byCategory = new HistoryFilter();
+        byCategory.setCategory("General");
+        queries.put("history page by category", buildPageQuery(HistoryPage.FIRST_PAGE, 1, byCategory, new ArrayList<>()));
+        HistoryFilter byTag = new HistoryFilter();
+        byTag.setTag("tag");
+        queries.put("history page by tag", buildPageQuery(HistoryPage.FIRST_PAGE, 1, byTag, new ArrayList<>()));
+        HistoryFilter pinned = new HistoryFilter();
+        pinned.setPinnedOnly(true);
+        queries.put("pinned history page", buildPageQuery(HistoryPage.FIRST_PAGE, 1, pinned, new ArrayList<>()));
+
+        try {
+            pool.read(conn -> {
+                for (Map.Entry<String, String> query : queries.entrySet()) {
+                    List<String> scans = QueryPlanCheck.findFullScans(conn.getConnection(), query.getValue());
+                    if (!scans.isEmpty()) {
+                        System.err.println("Warning: query for " + query.getKey() + " reads a whole table: " + scans);
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            System.err.println("Failed to check query plans: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Backfill an index with text items whose content is in the blob store
+     */
+    private int indexSpilledRows(Connection conn, String index) throws SQLException {
+        int indexed = 0;
+        try (PreparedStatement select = conn.prepareStatement(
+                        "SELECT id, hash FROM clipboard WHERE type IN ('TEXT', 'FILE_PATH') AND storage = 'blob'");
+                PreparedStatement insert = conn.prepareStatement(
+                        "INSERT INTO " + index + "(rowid, body) VALUES (?, ?)");
+                ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                try {
+                    byte[] content = blobStore.read(HashKeys.read(rs, COLUMN_HASH));
+                    insert.setLong(1, rs.getLong(COLUMN_ID));
+                    insert.setString(2, new String(content, StandardCharsets.UTF_8));
+                    insert.executeUpdate();
+                    indexed++;
+                } catch (IOException e) {
+                    System.err.println("Skipping unreadable blob while indexing: " + e.getMessage());
+                }
+            }
         }
+        return indexed;
     }
 
     public boolean toggleItemPin(String hash) {
         String sql = "UPDATE clipboard SET pinned = NOT pinned WHERE hash = ?";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, hash);
-            int rowsAffected = pstmt.executeUpdate();
+        try {
+            int rowsAffected = writeAndWait(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                HashKeys.bind(pstmt, 1, hash);
+                return pstmt.executeUpdate();
+            });
 
             if (rowsAffected > 0) {
                 System.out.println("Successfully toggled pin status for item: " + hash);
@@ -519,16 +3057,17 @@ public class LocalDatabase {    private final String DB_URL;
 
     public boolean isItemPinned(String hash) {
         String sql = "SELECT pinned FROM clipboard WHERE hash = ?";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, hash);
-            ResultSet rs = pstmt.executeQuery();
-
-            if (rs.next()) {
-                return rs.getBoolean(COLUMN_PINNED);
-            }
-            return false; // Item not found, so not pinned
+        try {
+            return pool.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                HashKeys.bind(pstmt, 1, hash);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        return rs.getBoolean(COLUMN_PINNED);
+                    }
+                    return false; // Item not found, so not pinned
+                }
+            });
         } catch (SQLException e) {
             System.err.println("Failed to check pin status: " + e.getMessage());
             return false;
@@ -536,22 +3075,117 @@ public class LocalDatabase {    private final String DB_URL;
     }
 
     public List<ClipboardItem> getPinnedItems() {
-        List<ClipboardItem> items = new ArrayList<>();
-        String sql = "SELECT type, content, timestamp, hash, category, pinned FROM clipboard WHERE pinned = TRUE ORDER BY timestamp DESC";
+        try {
+            return pool.read(conn -> readItems(conn.prepare(SQL_PINNED_ITEMS)));
+        } catch (SQLException e) {
+            System.err.println("Error getting pinned items: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Apply the compression and chunking settings to items saved from now on
+     */
+    public void configureCompression(Settings.CompressionSettings settings) {
+        compression.configure(settings.getCodec(), settings.getThresholdBytes());
+        chunkStore.configure(settings.getChunkThresholdBytes());
+    }
 
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-                Statement stmt = conn.createStatement();
-                ResultSet rs = stmt.executeQuery(sql)) {
+    /**
+     * The same operations returning futures, for callers such as the Swing
+     * event thread that must not block on the database
+     */
+    public AsyncDatabase async() {
+        return async;
+    }
 
-            while (rs.next()) {
-                ClipboardItem item = createItemFromResultSet(rs);
-                items.add(item);
-            }
+    /**
+     * Move unpinned items older than the given number of days into the
+     * monthly archive from the next archive pass on, or keep everything live if 0
+     */
+    public void configureArchive(int archiveAfterDays) {
+        this.archiveAfterDays = Math.max(0, archiveAfterDays);
+    }
+
+    /**
+     * Partitions and counters for the archive of old history
+     */
+    public HistoryArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Compression ratio and timing counters, and the place to register extra codecs
+     */
+    public PayloadCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Hit, miss and eviction counters for the recent content cache
+     */
+    public ItemCache getItemCache() {
+        return itemCache;
+    }
+
+    /**
+     * Sizes of the database file, its WAL and its free list, or null if they could not be read
+     */
+    public StorageMaintenance.StorageStats getStorageStats() {
+        try {
+            return maintenance.getStats();
         } catch (SQLException e) {
-            System.err.println("Error getting pinned items: " + e.getMessage());
+            System.err.println("Error reading storage stats: " + e.getMessage());
+            return null;
         }
+    }
 
-        return items;
+    /**
+     * Checkpoint and page reclaim counters for the background maintenance
+     */
+    public StorageMaintenance getMaintenance() {
+        return maintenance;
+    }
+
+    /**
+     * Size and hit counters for the hash filter behind {@link #itemExistsByHash}, or null if it failed to build
+     */
+    public HashFilter getHashFilter() {
+        return hashFilter;
+    }
+
+    /**
+     * Connection wait time and statement cache counters for the underlying pool
+     */
+    public ConnectionPool.PoolStats getPoolStats() {
+        return pool.getStats();
+    }
+
+    @Override
+    public void close() {
+        // Background work that has not started by now never will
+        backgroundWorkStarted.set(true);
+        // Lets edits the user already made reach the write queue
+        async.close();
+        maintenance.close();
+        // Waits for an archive pass, whose last delete still needs the write queue
+        archive.close();
+        // Queues the last batch of accesses, which the write queue then commits
+        accessTracker.close();
+        // Commit whatever is still queued before the connections go away
+        writeQueue.close();
+        System.out.println("Database write queue: " + writeQueue);
+        System.out.println("Database compression: " + compression);
+        System.out.println("Database chunking: " + chunkStore);
+        System.out.println("Database item cache: " + itemCache);
+        System.out.println("Database hash filter: " + hashFilter);
+        System.out.println("Database access tracking: " + accessTracker);
+        System.out.println("Database archive: " + archive);
+        System.out.println("Database async calls: " + async);
+        System.out.println("Database maintenance: " + maintenance + "; " + getStorageStats());
+        System.out.println("Database pool stats: " + pool.getStats());
+        saveHashFilter();
+        pool.close();
     }
 
-}
\ No newline at end of file
+}
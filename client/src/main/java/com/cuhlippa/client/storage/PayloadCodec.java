@@ -0,0 +1,15 @@
+package com.cuhlippa.client.storage;
+
+import java.io.IOException;
+
+/**
+ * A compression format for stored item content. The name is recorded with
+ * every row it encodes, so it must stay stable once data has been written.
+ */
+public interface PayloadCodec {
+    String name();
+
+    byte[] encode(byte[] data);
+
+    byte[] decode(byte[] data) throws IOException;
+}
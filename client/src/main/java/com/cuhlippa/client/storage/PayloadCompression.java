@@ -0,0 +1,178 @@
+package com.cuhlippa.client.storage;
+
+import com.cuhlippa.client.clipboard.ItemType;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compresses large text and file path payloads before they are stored and
+ * decompresses them when an item's content is loaded. Each row records the
+ * codec that wrote it, so changing the codec or turning compression off
+ * never affects what is already stored. Images are skipped: they are stored
+ * as PNG, which is compressed already.
+ *
+ * Keeps running totals of bytes saved and time spent, to tune the threshold by.
+ */
+public class PayloadCompression {
+    /** Codec name recorded for content stored as is */
+    public static final String NONE = "none";
+    public static final int DEFAULT_THRESHOLD_BYTES = 16 * 1024;
+
+    // Keep the original unless compression saves at least this fraction of it
+    private static final double MIN_SAVING = 0.1;
+
+    private final Map<String, PayloadCodec> codecs = new ConcurrentHashMap<>();
+    private volatile PayloadCodec active;
+    private volatile int thresholdBytes = DEFAULT_THRESHOLD_BYTES;
+
+    private final LongAdder compressedItems = new LongAdder();
+    private final LongAdder incompressibleItems = new LongAdder();
+    private final LongAdder originalBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder decodedItems = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    /**
+     * Content as it goes into storage, with the name of the codec that produced it
+     */
+    public static final class Encoded {
+        private final String codec;
+        private final byte[] data;
+
+        Encoded(String codec, byte[] data) {
+            this.codec = codec;
+            this.data = data;
+        }
+
+        public String getCodec() {
+            return codec;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    public PayloadCompression() {
+        DeflateCodec deflate = new DeflateCodec();
+        register(deflate);
+        this.active = deflate;
+    }
+
+    /**
+     * Make a codec available for decoding rows it wrote, e.g. a faster
+     * third-party compressor; {@link #configure} selects it for new items
+     */
+    public void register(PayloadCodec codec) {
+        codecs.put(codec.name(), codec);
+    }
+
+    /**
+     * Select the codec for new items by name, or "none" to store them uncompressed
+     */
+    public void configure(String codecName, int thresholdBytes) {
+        if (codecName == null || NONE.equals(codecName)) {
+            this.active = null;
+        } else if (codecs.containsKey(codecName)) {
+            this.active = codecs.get(codecName);
+        } else {
+            System.err.println("Unknown compression codec '" + codecName + "', storing new items uncompressed");
+            this.active = null;
+        }
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    public Encoded encode(ItemType type, byte[] content) {
+        PayloadCodec codec = active;
+        if (codec == null || type == ItemType.IMAGE || content.length <= thresholdBytes) {
+            return new Encoded(NONE, content);
+        }
+        return compress(codec, content);
+    }
+
+    /**
+     * Encode one chunk of a chunked text item (see ChunkStore). The size
+     * threshold is for whole items; chunks are all below it but together make
+     * up an item above it, so they are compressed whenever that saves enough.
+     */
+    Encoded encodeChunk(byte[] chunk) {
+        PayloadCodec codec = active;
+        return codec == null ? new Encoded(NONE, chunk) : compress(codec, chunk);
+    }
+
+    private Encoded compress(PayloadCodec codec, byte[] content) {
+        long start = System.nanoTime();
+        byte[] compressed = codec.encode(content);
+        encodeNanos.add(System.nanoTime() - start);
+        if (compressed.length > content.length * (1 - MIN_SAVING)) {
+            incompressibleItems.increment();
+            return new Encoded(NONE, content);
+        }
+        compressedItems.increment();
+        originalBytes.add(content.length);
+        storedBytes.add(compressed.length);
+        return new Encoded(codec.name(), compressed);
+    }
+
+    /**
+     * Blob store file name for spilled content. Compressed content carries its
+     * codec as a suffix, so a file always says how to read it, even while an
+     * uncompressed copy of the same content is still waiting to be swept.
+     */
+    public static String blobName(String hash, String codecName) {
+        return codecName == null || NONE.equals(codecName) ? hash : hash + "." + codecName;
+    }
+
+    public byte[] decode(String codecName, byte[] stored) throws IOException {
+        if (codecName == null || NONE.equals(codecName)) {
+            return stored;
+        }
+        PayloadCodec codec = codecs.get(codecName);
+        if (codec == null) {
+            throw new IOException("No codec registered for '" + codecName + "'");
+        }
+
+        long start = System.nanoTime();
+        byte[] content = codec.decode(stored);
+        decodeNanos.add(System.nanoTime() - start);
+        decodedItems.increment();
+        return content;
+    }
+
+    public long getCompressedItems() {
+        return compressedItems.sum();
+    }
+
+    /**
+     * Stored size over original size for everything compressed so far, 1.0 if nothing was
+     */
+    public double getCompressionRatio() {
+        long original = originalBytes.sum();
+        return original == 0 ? 1.0 : (double) storedBytes.sum() / original;
+    }
+
+    /**
+     * Average time to compress one item, including items that were then kept uncompressed
+     */
+    public double getAverageEncodeMicros() {
+        long attempts = compressedItems.sum() + incompressibleItems.sum();
+        return attempts == 0 ? 0 : encodeNanos.sum() / 1000.0 / attempts;
+    }
+
+    public double getAverageDecodeMicros() {
+        long decoded = decodedItems.sum();
+        return decoded == 0 ? 0 : decodeNanos.sum() / 1000.0 / decoded;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d items compressed (%d incompressible), %,d -> %,d bytes (ratio %.2f), "
+                        + "%.0f us per encode, %.0f us per decode over %d reads",
+                compressedItems.sum(), incompressibleItems.sum(), originalBytes.sum(), storedBytes.sum(),
+                getCompressionRatio(), getAverageEncodeMicros(), getAverageDecodeMicros(), decodedItems.sum());
+    }
+}
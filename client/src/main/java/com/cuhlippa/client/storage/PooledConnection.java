@@ -0,0 +1,110 @@
+package com.cuhlippa.client.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A connection owned by the {@link ConnectionPool} together with its cache of
+ * prepared statements. Statements handed out by {@link #prepare(String)} stay
+ * open for the lifetime of the connection, so callers must close their
+ * ResultSets but never the statement itself.
+ */
+public class PooledConnection {
+    private static final int MAX_CACHED_STATEMENTS = 64;
+
+    private final Connection connection;
+    private final LongAdder cacheHits;
+    private final LongAdder cacheMisses;
+    private final Map<String, PreparedStatement> statements;
+    private int transactionDepth = 0;
+
+    PooledConnection(Connection connection, LongAdder cacheHits, LongAdder cacheMisses) {
+        this.connection = connection;
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > MAX_CACHED_STATEMENTS) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Return a cached prepared statement for the SQL, preparing it on first use.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement pstmt = statements.get(sql);
+        if (pstmt != null) {
+            cacheHits.increment();
+            pstmt.clearParameters();
+            return pstmt;
+        }
+
+        cacheMisses.increment();
+        pstmt = connection.prepareStatement(sql);
+        statements.put(sql, pstmt);
+        return pstmt;
+    }
+
+    /**
+     * Plain statement for one-off DDL and pragmas. Not cached; the caller closes it.
+     */
+    public Statement createStatement() throws SQLException {
+        return connection.createStatement();
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    boolean beginTransaction() throws SQLException {
+        if (transactionDepth++ == 0) {
+            connection.setAutoCommit(false);
+            return true;
+        }
+        return false;
+    }
+
+    void endTransaction(boolean commit) throws SQLException {
+        if (--transactionDepth > 0) {
+            return;
+        }
+        try {
+            if (commit) {
+                connection.commit();
+            } else {
+                connection.rollback();
+            }
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    void close() {
+        statements.values().forEach(PooledConnection::closeQuietly);
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Failed to close database connection: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Statement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // Statement is being discarded anyway
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.cuhlippa.client.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Asks SQLite how it would run a query and reports the tables it would read
+ * in full. A plan step of just "SCAN t" walks the whole table; steps that scan
+ * through an index or search by key are fine.
+ *
+ * Parameters are left unbound, which does not change the plan SQLite picks.
+ */
+final class QueryPlanCheck {
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN \\S+$");
+
+    private QueryPlanCheck() {}
+
+    /**
+     * The plan steps of a query that read a whole table, empty if there are none
+     */
+    static List<String> findFullScans(Connection conn, String sql) throws SQLException {
+        List<String> scans = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+                ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                String detail = rs.getString("detail");
+                if (detail != null && FULL_SCAN.matcher(detail.trim()).matches()) {
+                    scans.add(detail.trim());
+                }
+            }
+        }
+        return scans;
+    }
+}
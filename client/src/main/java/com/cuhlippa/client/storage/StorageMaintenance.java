@@ -0,0 +1,220 @@
+package com.cuhlippa.client.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the database file and its WAL from growing without bound over long
+ * sessions. SQLite's own auto-checkpoint copies the WAL back into the
+ * database but never shrinks the file, and deleted rows leave free pages
+ * behind, so every so often this:
+ *
+ * - checkpoints the WAL once it passes a size threshold: passive while the
+ *   app is busy, truncating, which also resets the file, when it is idle or
+ *   the WAL has grown very large;
+ * - hands free pages back to the file system with incremental vacuum, a few
+ *   megabytes at a time and only while nothing else is using the database.
+ *
+ * The app counts as idle when the pool handed out no connections between two checks.
+ */
+public class StorageMaintenance implements AutoCloseable {
+    private static final long CHECK_INTERVAL_SECONDS = 30;
+    private static final long PASSIVE_CHECKPOINT_BYTES = 4L * 1024 * 1024;
+    private static final long TRUNCATE_CHECKPOINT_BYTES = 64L * 1024 * 1024;
+    // Fewer free pages than this are left for new rows to reuse
+    private static final long MIN_FREE_PAGES = 256;
+    // Pages reclaimed per idle check, so one run never holds the writer for long
+    private static final int VACUUM_STEP_PAGES = 2048;
+    private static final long SHUTDOWN_WAIT_SECONDS = 10;
+
+    private final ConnectionPool pool;
+    private final Path databaseFile;
+    private final Path walFile;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "db-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long lastAcquisitions = -1;
+
+    private final LongAdder passiveCheckpoints = new LongAdder();
+    private final LongAdder truncateCheckpoints = new LongAdder();
+    private final LongAdder busyCheckpoints = new LongAdder();
+    private final LongAdder pagesReclaimed = new LongAdder();
+
+    StorageMaintenance(ConnectionPool pool, Path databaseFile) {
+        this.pool = pool;
+        this.databaseFile = databaseFile;
+        this.walFile = databaseFile.resolveSibling(databaseFile.getFileName() + "-wal");
+    }
+
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::runSafely, CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    private void runSafely() {
+        try {
+            runOnce();
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Database maintenance failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * One maintenance pass: checkpoint if the WAL is over its threshold, and
+     * reclaim free pages if the database has been idle since the last pass
+     */
+    void runOnce() throws SQLException {
+        boolean idle = isIdle();
+
+        long walBytes = sizeOf(walFile);
+        if (walBytes > TRUNCATE_CHECKPOINT_BYTES || (idle && walBytes > PASSIVE_CHECKPOINT_BYTES)) {
+            checkpoint("TRUNCATE");
+        } else if (walBytes > PASSIVE_CHECKPOINT_BYTES) {
+            checkpoint("PASSIVE");
+        }
+
+        if (idle) {
+            StorageStats stats = getStats();
+            if (stats.getFreelistPages() >= MIN_FREE_PAGES) {
+                reclaimFreePages();
+            }
+        }
+        // Our own connections don't count as activity next time
+        lastAcquisitions = acquisitions();
+    }
+
+    private boolean isIdle() {
+        return lastAcquisitions >= 0 && acquisitions() == lastAcquisitions;
+    }
+
+    private long acquisitions() {
+        ConnectionPool.PoolStats stats = pool.getStats();
+        return stats.getWriterAcquisitions() + stats.getReaderAcquisitions();
+    }
+
+    private void checkpoint(String mode) throws SQLException {
+        boolean busy = pool.writeWithoutTransaction(conn -> {
+            try (Statement stmt = conn.createStatement();
+                    ResultSet rs = stmt.executeQuery("PRAGMA wal_checkpoint(" + mode + ")")) {
+                // First column is 1 if readers kept the checkpoint from finishing
+                return rs.next() && rs.getInt(1) != 0;
+            }
+        });
+        if (busy) {
+            busyCheckpoints.increment();
+        } else if ("TRUNCATE".equals(mode)) {
+            truncateCheckpoints.increment();
+        } else {
+            passiveCheckpoints.increment();
+        }
+    }
+
+    private void reclaimFreePages() throws SQLException {
+        long reclaimed = pool.writeWithoutTransaction(conn -> {
+            long before = pragmaLong(conn, "freelist_count");
+            try (Statement stmt = conn.createStatement()) {
+                // Each step of the pragma frees one page; executeUpdate runs it to
+                // the end, where execute would stop after the first
+                stmt.executeUpdate("PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")");
+            }
+            return before - pragmaLong(conn, "freelist_count");
+        });
+        if (reclaimed > 0) {
+            pagesReclaimed.add(reclaimed);
+            // The moved pages went through the WAL; write them back and shrink it while still idle
+            checkpoint("TRUNCATE");
+        }
+    }
+
+    private static long pragmaLong(PooledConnection conn, String pragma) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Current sizes of the database file, its WAL and its free list
+     */
+    public StorageStats getStats() throws SQLException {
+        long[] pages = pool.read(conn -> new long[] {
+                pragmaLong(conn, "page_size"), pragmaLong(conn, "page_count"), pragmaLong(conn, "freelist_count")});
+        return new StorageStats(sizeOf(databaseFile), sizeOf(walFile), pages[0], pages[1], pages[2]);
+    }
+
+    /**
+     * Stop scheduling, waiting for a pass that is already running so it does
+     * not outlive the connections
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d passive and %d truncating checkpoints (%d blocked by readers), %d pages reclaimed",
+                passiveCheckpoints.sum(), truncateCheckpoints.sum(), busyCheckpoints.sum(), pagesReclaimed.sum());
+    }
+
+    /**
+     * Snapshot of how much space the database takes and how much of it is free
+     */
+    public static class StorageStats {
+        private final long databaseBytes;
+        private final long walBytes;
+        private final long pageSize;
+        private final long pageCount;
+        private final long freelistPages;
+
+        StorageStats(long databaseBytes, long walBytes, long pageSize, long pageCount, long freelistPages) {
+            this.databaseBytes = databaseBytes;
+            this.walBytes = walBytes;
+            this.pageSize = pageSize;
+            this.pageCount = pageCount;
+            this.freelistPages = freelistPages;
+        }
+
+        public long getDatabaseBytes() { return databaseBytes; }
+        public long getWalBytes() { return walBytes; }
+        public long getPageSize() { return pageSize; }
+        public long getPageCount() { return pageCount; }
+        public long getFreelistPages() { return freelistPages; }
+
+        public long getFreelistBytes() {
+            return freelistPages * pageSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("database %,d bytes, WAL %,d bytes, %,d of %,d pages free (%,d bytes)",
+                    databaseBytes, walBytes, freelistPages, pageCount, getFreelistBytes());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.cuhlippa.client.storage;
+
+import com.cuhlippa.client.clipboard.ItemType;
+import org.sqlite.Function;
+import org.sqlite.core.Codes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Plans the history search, which keeps the original semantics: an item
+ * matches when its lowercased text content or lowercased type name contains
+ * the query.
+ *
+ * Queries of at least three characters are looked up in the clipboard_trigram
+ * index, and only those candidates are checked exactly. Shorter queries have
+ * no trigram to look up, so they fall back to checking every row.
+ */
+final class SubstringSearch {
+    static final int MIN_INDEXED_LENGTH = 3;
+    static final String CONTAINS_FUNCTION = "content_contains";
+
+    private SubstringSearch() {}
+
+    /**
+     * Register content_contains(type, storage, codec, hash, content, query) on
+     * a connection. It applies the exact match to one row, reading spilled
+     * content back from the blob store, chunked content from the chunk tables
+     * on the same connection, and decompressing it if needed.
+     */
+    static void registerFunctions(Connection connection, BlobStore blobStore, ChunkStore chunkStore,
+            PayloadCompression compression) throws SQLException {
+        Function.create(connection, CONTAINS_FUNCTION, new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                String type = value_text(0);
+                String query = value_text(5);
+                if (!ItemType.IMAGE.name().equals(type) && query != null) {
+                    byte[] content = readContent();
+                    if (content != null && new String(content, StandardCharsets.UTF_8).toLowerCase().contains(query)) {
+                        result(1);
+                        return;
+                    }
+                }
+                result(0);
+            }
+
+            private byte[] readContent() throws SQLException {
+                try {
+                    if ("chunked".equals(value_text(1))) {
+                        return readChunks();
+                    }
+                    String codec = value_text(2);
+                    byte[] stored = "blob".equals(value_text(1))
+                            ? blobStore.read(PayloadCompression.blobName(hashArgument(), codec))
+                            : value_blob(4);
+                    return compression.decode(codec, stored);
+                } catch (IOException e) {
+                    System.err.println("Search could not read item content: " + e.getMessage());
+                    return null;
+                }
+            }
+
+            private byte[] readChunks() throws SQLException, IOException {
+                try (PreparedStatement pstmt = connection.prepareStatement(ChunkStore.SQL_READ_BY_HASH)) {
+                    pstmt.setObject(1, value_type(3) == Codes.SQLITE_BLOB ? value_blob(3) : value_text(3));
+                    return chunkStore.assemble(ChunkStore.read(pstmt));
+                }
+            }
+
+            private String hashArgument() throws SQLException {
+                // Hashes are stored packed; see HashKeys
+                return value_type(3) == Codes.SQLITE_BLOB ? HashKeys.toHex(value_blob(3)) : value_text(3);
+            }
+        }, 6, Function.FLAG_DETERMINISTIC);
+    }
+
+    /**
+     * Append the WHERE condition for a lowercased search query on clipboard c
+     */
+    static void appendCondition(StringBuilder sql, List<Object> params, String query) {
+        appendCondition(sql, params, query, "c.storage", "clipboard_trigram");
+    }
+
+    /**
+     * Append the same condition for an archive partition's items table, which
+     * keeps all content inline and has its own trigram index, items_trigram
+     */
+    static void appendArchiveCondition(StringBuilder sql, List<Object> params, String query) {
+        appendCondition(sql, params, query, "'inline'", "items_trigram");
+    }
+
+    private static void appendCondition(StringBuilder sql, List<Object> params, String query, String storage,
+            String trigramIndex) {
+        String exact = CONTAINS_FUNCTION + "(c.type, " + storage + ", c.codec, c.hash, c.content, ?)";
+        sql.append(" AND (");
+        if (query.codePointCount(0, query.length()) >= MIN_INDEXED_LENGTH) {
+            sql.append("(c.id IN (SELECT rowid FROM ").append(trigramIndex).append(" WHERE ").append(trigramIndex)
+                    .append(" MATCH ?) AND ").append(exact).append(")");
+            params.add(toPhrase(query));
+        } else {
+            sql.append(exact);
+        }
+        params.add(query);
+
+        // The type name half of the match is decided here rather than per row
+        for (ItemType type : ItemType.values()) {
+            if (type.toString().toLowerCase().contains(query)) {
+                sql.append(" OR c.type = ?");
+                params.add(type.name());
+            }
+        }
+        sql.append(")");
+    }
+
+    /**
+     * Quote the query as one FTS5 phrase, so the trigram index matches it as a substring
+     */
+    static String toPhrase(String query) {
+        return "\"" + query.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,113 @@
+package com.cuhlippa.client.storage;
+
+/**
+ * 64-bit SimHash of a text, for finding items that differ only in
+ * whitespace, a trailing newline, a timestamp or a few other tokens. Texts
+ * sharing most of their content get signatures a few bits apart, so the
+ * Hamming distance between signatures stands in for how different the texts
+ * are.
+ *
+ * The text is split into tokens: runs of letters and digits, and single
+ * punctuation characters, compared case-insensitively, with whitespace
+ * dropped. Runs of digits alone all count as the same token, so timestamps,
+ * counters and ids do not tell otherwise equal texts apart. Every run of three consecutive tokens is one feature, and each
+ * bit of the signature is a majority vote over the features' hashes. An edit
+ * therefore only changes the features overlapping it, and whitespace changes
+ * nothing at all.
+ *
+ * For lookup, the signature is cut into {@link #BANDS} bands of 16 bits.
+ * Two signatures within BANDS - 1 bits of each other agree exactly on at
+ * least one band, so an index lookup per band finds all of them.
+ */
+public final class TextSignature {
+    public static final int BANDS = 4;
+    private static final int BAND_BITS = Long.SIZE / BANDS;
+    private static final int SHINGLE_TOKENS = 3;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long NUMBER_TOKEN = mix(FNV_OFFSET ^ '0');
+
+    private TextSignature() {}
+
+    /**
+     * Whether the text has any tokens to sign; blank text has none
+     */
+    public static boolean canSign(String text) {
+        return !text.isBlank();
+    }
+
+    public static long simHash(String text) {
+        int[] votes = new int[Long.SIZE];
+        long previous = 0;
+        long beforePrevious = 0;
+        int tokens = 0;
+        int i = 0;
+        while (i < text.length()) {
+            int start = i;
+            int ch = text.codePointAt(i);
+            if (Character.isWhitespace(ch)) {
+                i += Character.charCount(ch);
+                continue;
+            }
+            i += Character.charCount(ch);
+            boolean number = Character.isDigit(ch);
+            if (Character.isLetterOrDigit(ch)) {
+                while (i < text.length() && Character.isLetterOrDigit(text.codePointAt(i))) {
+                    number &= Character.isDigit(text.codePointAt(i));
+                    i += Character.charCount(text.codePointAt(i));
+                }
+            }
+            long token = number ? NUMBER_TOKEN : tokenHash(text, start, i);
+            tokens++;
+            if (tokens >= SHINGLE_TOKENS) {
+                vote(votes, mix(beforePrevious ^ Long.rotateLeft(previous, 21) ^ Long.rotateLeft(token, 42)));
+            }
+            beforePrevious = previous;
+            previous = token;
+        }
+        if (tokens > 0 && tokens < SHINGLE_TOKENS) {
+            // Too short for a full shingle; the tokens there are make up the one feature
+            vote(votes, mix(beforePrevious ^ Long.rotateLeft(previous, 21)));
+        }
+
+        long signature = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (votes[bit] > 0) {
+                signature |= 1L << bit;
+            }
+        }
+        return signature;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    public static int band(long signature, int band) {
+        return (int) (signature >>> (band * BAND_BITS)) & ((1 << BAND_BITS) - 1);
+    }
+
+    private static long tokenHash(String text, int start, int end) {
+        long hash = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            hash ^= Character.toLowerCase(text.charAt(i));
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    private static void vote(int[] votes, long feature) {
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            votes[bit] += ((feature >>> bit) & 1) != 0 ? 1 : -1;
+        }
+    }
+
+    /**
+     * splitmix64 finalizer, so that similar inputs give unrelated bits
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
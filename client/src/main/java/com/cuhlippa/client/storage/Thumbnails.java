@@ -0,0 +1,55 @@
+package com.cuhlippa.client.storage;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Creates the small PNG stored next to image items so lists never decode the full image.
+ */
+public class Thumbnails {
+    public static final int MAX_DIMENSION = 128;
+
+    private Thumbnails() {}
+
+    /**
+     * Scale encoded image bytes down to fit MAX_DIMENSION, or null if they cannot be decoded
+     */
+    public static byte[] createPng(byte[] imageData) {
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
+            return image != null ? createPng(image) : null;
+        } catch (IOException e) {
+            System.err.println("Failed to create thumbnail: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Scale an image already decoded, e.g. at capture, down to fit MAX_DIMENSION
+     */
+    public static byte[] createPng(BufferedImage image) {
+        try {
+            double scale = Math.min(1.0, (double) MAX_DIMENSION / Math.max(image.getWidth(), image.getHeight()));
+            int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+            int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = scaled.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(image, 0, 0, width, height, null);
+            g2d.dispose();
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ImageIO.write(scaled, "png", baos);
+            return baos.toByteArray();
+        } catch (IOException e) {
+            System.err.println("Failed to create thumbnail: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.cuhlippa.client.storage;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single writer thread that commits queued write operations in groups. The
+ * first operation to arrive opens a short batching window; everything queued
+ * within it is applied in one transaction, so a burst of captures or sync
+ * receives pays for one commit instead of one each. Each operation runs in its
+ * own savepoint, so a failing operation is rolled back without taking the rest
+ * of its batch with it.
+ *
+ * Futures complete on a separate callback thread, in submission order, after
+ * the batch has committed, so follow-up work never holds up the next batch.
+ */
+public class WriteQueue implements AutoCloseable {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long BATCH_WINDOW_MILLIS = 5;
+    private static final long SHUTDOWN_WAIT_SECONDS = 10;
+
+    private final ConnectionPool pool;
+    private final BlockingQueue<PendingWrite<?>> queue;
+    private final Thread writerThread;
+    private final ExecutorService callbacks = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "db-write-callbacks");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed = false;
+
+    private final LongAdder committedWrites = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    private static class PendingWrite<T> {
+        final ConnectionPool.SqlWork<T> work;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        SQLException error;
+
+        PendingWrite(ConnectionPool.SqlWork<T> work) {
+            this.work = work;
+        }
+
+        void run(PooledConnection conn) throws SQLException {
+            PreparedStatement savepoint = conn.prepare("SAVEPOINT write_op");
+            savepoint.execute();
+            try {
+                result = work.execute(conn);
+                conn.prepare("RELEASE write_op").execute();
+            } catch (SQLException | RuntimeException e) {
+                error = e instanceof SQLException sqlException ? sqlException : new SQLException(e.getMessage(), e);
+                conn.prepare("ROLLBACK TO write_op").execute();
+                conn.prepare("RELEASE write_op").execute();
+            }
+        }
+
+        void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+    public WriteQueue(ConnectionPool pool) {
+        this(pool, DEFAULT_CAPACITY);
+    }
+
+    public WriteQueue(ConnectionPool pool, int capacity) {
+        this.pool = pool;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writerThread = new Thread(this::runWriter, "db-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queue work for the writer thread. Blocks while the queue is full, which
+     * slows producers down to the rate the database can absorb.
+     */
+    public <T> CompletableFuture<T> submit(ConnectionPool.SqlWork<T> work) {
+        PendingWrite<T> pending = new PendingWrite<>(work);
+        if (closed) {
+            pending.future.completeExceptionally(new SQLException("Write queue is closed"));
+            return pending.future;
+        }
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.future.completeExceptionally(new SQLException("Interrupted while queueing a write", e));
+        }
+        return pending.future;
+    }
+
+    private void runWriter() {
+        List<PendingWrite<?>> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingWrite<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                collectBatch(batch);
+                commitBatch(batch);
+            } catch (InterruptedException e) {
+                // close() interrupts a writer that is waiting on an empty queue
+                if (!closed) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void collectBatch(List<PendingWrite<?>> batch) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_WINDOW_MILLIS);
+        while (batch.size() < MAX_BATCH_SIZE) {
+            // Take whatever is already waiting before looking at the clock
+            if (queue.drainTo(batch, MAX_BATCH_SIZE - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || closed) {
+                return;
+            }
+            try {
+                PendingWrite<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    return;
+                }
+                batch.add(next);
+            } catch (InterruptedException e) {
+                // Commit what has been collected; the run loop sees the close
+                return;
+            }
+        }
+    }
+
+    private void commitBatch(List<PendingWrite<?>> batch) {
+        List<PendingWrite<?>> committed = new ArrayList<>(batch);
+        try {
+            pool.write(conn -> {
+                for (PendingWrite<?> pending : committed) {
+                    pending.run(conn);
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            System.err.println("Write batch of " + committed.size() + " failed: " + e.getMessage());
+            for (PendingWrite<?> pending : committed) {
+                pending.error = e;
+            }
+        }
+
+        batches.increment();
+        for (PendingWrite<?> pending : committed) {
+            if (pending.error != null) {
+                failedWrites.increment();
+            } else {
+                committedWrites.increment();
+            }
+        }
+        try {
+            callbacks.execute(() -> committed.forEach(PendingWrite::complete));
+        } catch (RejectedExecutionException e) {
+            committed.forEach(PendingWrite::complete);
+        }
+    }
+
+    public long getCommittedWrites() {
+        return committedWrites.sum();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * Stop accepting writes, commit everything already queued and wait for its callbacks
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_WAIT_SECONDS));
+            callbacks.shutdown();
+            callbacks.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d writes committed in %d batches, %d failed",
+                getCommittedWrites(), getBatches(), getFailedWrites());
+    }
+}
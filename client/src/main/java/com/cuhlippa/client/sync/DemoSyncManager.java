@@ -238,6 +238,8 @@ public class DemoSyncManager implements ClipboardListener {
             // Check if item already exists to prevent duplicates
             if (!db.itemExistsByHash(item.getHash())) {
                 saveItemAndNotify(item);
+            } else {
+                db.recordAccess(item);
             }
             
             // Mark message as processed
@@ -248,16 +250,17 @@ public class DemoSyncManager implements ClipboardListener {
         }
     }
       private void saveItemAndNotify(ClipboardItem item) {
-        processingSync = true;
-        try {
-            db.saveItem(item);
-            System.out.println(DEMO_LOG_PREFIX + deviceName + "] received sync item");
-            
-            // Notify UI and other listeners
-            notifyListeners(item);
-        } finally {
-            processingSync = false;
-        }
+        db.saveItem(item).thenRun(() -> {
+            processingSync = true;
+            try {
+                System.out.println(DEMO_LOG_PREFIX + deviceName + "] received sync item");
+
+                // Notify UI and other listeners
+                notifyListeners(item);
+            } finally {
+                processingSync = false;
+            }
+        });
     }
     
     private void createMarkerFile(File markerFile) {
@@ -68,19 +68,23 @@ public class SyncManager implements ClipboardListener, SyncClient.SyncMessageLis
 
             ClipboardItem item = dto.toClipboardItem();
             if (!db.itemExistsByHash(item.getHash())) {
-                // Set flag to prevent triggering sync when we notify listeners
-                processingSync = true;
-                try {
-                    db.saveItem(item);
+                // Listeners re-read history, so notify them once the save is committed
+                db.saveItem(item).thenRun(() -> {
                     System.out.println("Saved sync item from: " + dto.getDeviceId());
-                    
-                    // Notify UI and other listeners that a new item was received
-                    System.out.println("Notifying " + listeners.size() + " listeners about new sync item");
-                    notifyListeners(item);
-                } finally {
-                    processingSync = false;
-                }
+
+                    // Set flag to prevent triggering sync when we notify listeners
+                    processingSync = true;
+                    try {
+                        // Notify UI and other listeners that a new item was received
+                        System.out.println("Notifying " + listeners.size() + " listeners about new sync item");
+                        notifyListeners(item);
+                    } finally {
+                        processingSync = false;
+                    }
+                });
             } else {
+                // Copied again on another device, which counts as a reuse here too
+                db.recordAccess(item);
                 System.out.println("Item already exists, skipping: " + item.getHash());
             }        } catch (Exception e) {
             UserFriendlyErrors.logError("Sync item processing failed", "Failed to process sync item: " + e.getMessage());
@@ -112,9 +116,9 @@ public class SyncManager implements ClipboardListener, SyncClient.SyncMessageLis
         if (!isInitialized || syncClient == null || !syncClient.isOpen())
             return;        // Skip large images to prevent WebSocket buffer overflow
         if (item.getType() == ItemType.IMAGE) {
-            byte[] content = item.getContent();
-            if (content.length > 10 * 1024 * 1024) {  // 10MB limit
-                System.out.println("Skipping large image (" + content.length + " bytes) - too big for sync");
+            int contentSize = item.getContentSize();
+            if (contentSize > 10 * 1024 * 1024) {  // 10MB limit
+                System.out.println("Skipping large image (" + contentSize + " bytes) - too big for sync");
                 return;
             }
         }
@@ -0,0 +1,175 @@
+package com.cuhlippa.test.storage;
+
+import com.cuhlippa.client.clipboard.ClipboardItem;
+import com.cuhlippa.client.clipboard.ItemType;
+import com.cuhlippa.client.config.Settings;
+import com.cuhlippa.client.storage.HistoryFilter;
+import com.cuhlippa.client.storage.HistoryPage;
+import com.cuhlippa.client.storage.LocalDatabase;
+import com.cuhlippa.client.storage.StorageMaintenance;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Compares large text items stored whole (compressed, the old path) against
+ * content-defined chunks, on two histories of 300 items of about 50 KB: one
+ * copy of the same stack trace after another, each with a few small edits,
+ * and one of unrelated texts, where chunking has nothing to share.
+ *
+ * Reports the bytes of stored content, the whole database size, which
+ * includes the search indexes that chunking leaves as they are, and insert
+ * and read throughput. Reads go through a freshly opened database, so no
+ * content comes from the cache.
+ */
+public class ChunkedStorageBenchmark {
+    private static final int ITEMS = 300;
+    private static final int LINES_PER_ITEM = 600;
+    private static final int EDITS_PER_COPY = 3;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("📊 Chunked storage benchmark (history, storage, stored size, insert, read)");
+        List<byte[]> similar = similarTexts(new Random(42));
+        List<byte[]> distinct = distinctTexts(new Random(42));
+        for (int chunkThreshold : new int[] {0, 16 * 1024}) {
+            run("edited copies", similar, chunkThreshold);
+            run("distinct texts", distinct, chunkThreshold);
+        }
+    }
+
+    private static void run(String history, List<byte[]> texts, int chunkThreshold) throws Exception {
+        Path dir = Files.createTempDirectory("cuhlippa-bench");
+        String url = "jdbc:sqlite:" + dir.resolve("bench.db");
+        Settings.CompressionSettings settings = new Settings.CompressionSettings();
+        settings.setChunkThresholdBytes(chunkThreshold);
+        long totalBytes = texts.stream().mapToLong(text -> text.length).sum();
+
+        try {
+            long insertNanos;
+            try (LocalDatabase db = new LocalDatabase(url)) {
+                db.configureCompression(settings);
+                long start = System.nanoTime();
+                List<CompletableFuture<Void>> saves = new ArrayList<>();
+                for (byte[] text : texts) {
+                    saves.add(db.saveItem(new ClipboardItem(ItemType.TEXT, text, LocalDateTime.now(), sha256(text),
+                            Set.of(), "General", false)));
+                }
+                CompletableFuture.allOf(saves.toArray(new CompletableFuture<?>[0])).join();
+                insertNanos = System.nanoTime() - start;
+            }
+
+            try (LocalDatabase db = new LocalDatabase(url)) {
+                StorageMaintenance.StorageStats stats = db.getStorageStats();
+                long database = stats.getDatabaseBytes() + stats.getWalBytes() - stats.getFreelistBytes();
+                long content = storedContentBytes(url);
+
+                long start = System.nanoTime();
+                long readBytes = 0;
+                HistoryPage page = db.getItemsPage(HistoryPage.FIRST_PAGE, ITEMS, HistoryFilter.all());
+                for (ClipboardItem item : page.getItems()) {
+                    readBytes += item.getContent().length;
+                }
+                long readNanos = System.nanoTime() - start;
+
+                System.out.printf("%-15s %-8s content %,11d of %,11d bytes (%5.1fx smaller), database %,11d bytes, "
+                                + "insert %5.1f MB/s, read %6.1f MB/s%n",
+                        history, chunkThreshold > 0 ? "chunked" : "whole", content, totalBytes,
+                        (double) totalBytes / content, database, megabytesPerSecond(totalBytes, insertNanos),
+                        megabytesPerSecond(readBytes, readNanos));
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Content as stored: inline in the rows plus the shared chunks
+     */
+    private static long storedContentBytes(String url) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url);
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("""
+                        SELECT (SELECT coalesce(sum(length(content)), 0) FROM clipboard)
+                             + (SELECT coalesce(sum(length(data)), 0) FROM content_chunks)
+                        """)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * One stack trace copied again and again, each copy with a few lines
+     * changed, added or dropped, the way a developer re-copies it while debugging
+     */
+    private static List<byte[]> similarTexts(Random random) {
+        List<String> base = stackTrace(random);
+        List<byte[]> texts = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            List<String> copy = new ArrayList<>(base);
+            copy.set(0, "2024-05-14 10:" + (i / 60) + ":" + (i % 60) + " ERROR Request " + random.nextInt() + " failed");
+            for (int edit = 0; edit < EDITS_PER_COPY; edit++) {
+                int line = 1 + random.nextInt(copy.size() - 1);
+                switch (random.nextInt(3)) {
+                    case 0 -> copy.set(line, copy.get(line).replace(".java:", ".java:" + random.nextInt(10)));
+                    case 1 -> copy.add(line, "\tat com.example.retry.Attempt" + random.nextInt(100) + ".run(Attempt.java:12)");
+                    default -> copy.remove(line);
+                }
+            }
+            texts.add(String.join("\n", copy).getBytes(StandardCharsets.UTF_8));
+        }
+        return texts;
+    }
+
+    private static List<byte[]> distinctTexts(Random random) {
+        List<byte[]> texts = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            texts.add(String.join("\n", stackTrace(random)).getBytes(StandardCharsets.UTF_8));
+        }
+        return texts;
+    }
+
+    private static List<String> stackTrace(Random random) {
+        List<String> lines = new ArrayList<>();
+        lines.add("Exception in thread \"main\" java.lang.IllegalStateException: " + random.nextLong());
+        for (int i = 1; i < LINES_PER_ITEM; i++) {
+            int module = random.nextInt(1000);
+            lines.add("\tat com.example.service.module" + module + ".Handler" + random.nextInt(100) + ".handle"
+                    + random.nextInt(20) + "(Handler.java:" + random.nextInt(2000) + ")");
+        }
+        return lines;
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return bytes / 1e6 / (nanos / 1e9);
+    }
+
+    private static String sha256(byte[] data) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.cuhlippa.test.storage;
+
+import com.cuhlippa.client.clipboard.ClipboardItem;
+import com.cuhlippa.client.storage.LocalDatabase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Compares history loading with one tag query per row (the old getAllItems path)
+ * against the batched single-query path, at 1k, 10k and 100k items.
+ */
+public class HistoryLoadBenchmark {
+    private static final int[] SIZES = {1_000, 10_000, 100_000};
+    private static final int TAGS_PER_ITEM = 2;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("📊 History load benchmark (items, per-row tag queries, batched)");
+        for (int size : SIZES) {
+            runForSize(size);
+        }
+    }
+
+    private static void runForSize(int size) throws SQLException, IOException {
+        Path dir = Files.createTempDirectory("cuhlippa-bench");
+        String url = "jdbc:sqlite:" + dir.resolve("bench.db");
+
+        try (LocalDatabase db = new LocalDatabase(url)) {
+            populate(url, size);
+
+            // Warm up both paths once so the page cache is hot for each
+            loadWithPerRowTagQueries(url);
+            db.getAllItems();
+
+            long start = System.nanoTime();
+            int before = loadWithPerRowTagQueries(url);
+            long beforeMillis = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            List<ClipboardItem> after = db.getAllItems();
+            long afterMillis = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.printf("%,8d items: before %,6d ms (%d rows), after %,6d ms (%d rows)%n",
+                    size, beforeMillis, before, afterMillis, after.size());
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void populate(String url, int size) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement item = conn.prepareStatement(
+                    "INSERT INTO clipboard(type, content, timestamp, hash, category, pinned) VALUES ('TEXT', ?, ?, ?, 'General', 0)");
+                    PreparedStatement tag = conn.prepareStatement(
+                            "INSERT INTO item_tags(item_hash, tag) VALUES (?, ?)")) {
+                long timestamp = System.currentTimeMillis();
+                for (int i = 0; i < size; i++) {
+                    // Stored the way LocalDatabase stores SHA-256 hashes: the raw 32 bytes
+                    byte[] hash = HexFormat.of().parseHex(String.format("%064x", i));
+                    item.setBytes(1, ("Benchmark clipboard entry number " + i).getBytes());
+                    item.setLong(2, timestamp);
+                    item.setBytes(3, hash);
+                    item.addBatch();
+                    for (int t = 0; t < TAGS_PER_ITEM; t++) {
+                        tag.setBytes(1, hash);
+                        tag.setString(2, "tag" + ((i + t) % 16));
+                        tag.addBatch();
+                    }
+                }
+                item.executeBatch();
+                tag.executeBatch();
+            }
+            conn.commit();
+        }
+    }
+
+    /**
+     * The pre-batching access pattern: the row query, then a new connection and
+     * tag query for every row.
+     */
+    private static int loadWithPerRowTagQueries(String url) throws SQLException {
+        int rows = 0;
+        try (Connection conn = DriverManager.getConnection(url);
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(
+                        "SELECT type, content, timestamp, hash, category, pinned FROM clipboard ORDER by id DESC")) {
+            while (rs.next()) {
+                rs.getBytes("content");
+                rs.getLong("timestamp");
+                loadTags(url, rs.getBytes("hash"));
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static Set<String> loadTags(String url, byte[] hash) throws SQLException {
+        Set<String> tags = new HashSet<>();
+        try (Connection conn = DriverManager.getConnection(url);
+                PreparedStatement pstmt = conn.prepareStatement("SELECT tag FROM item_tags WHERE item_hash = ?")) {
+            pstmt.setBytes(1, hash);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    tags.add(rs.getString("tag"));
+                }
+            }
+        }
+        return tags;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
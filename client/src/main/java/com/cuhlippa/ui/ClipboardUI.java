@@ -8,6 +8,7 @@ import javax.swing.event.DocumentListener;
 import com.cuhlippa.client.clipboard.ClipboardItem;
 import com.cuhlippa.client.clipboard.ClipboardListener;
 import com.cuhlippa.client.config.Settings;
+import com.cuhlippa.client.storage.HistoryFilter;
 import com.cuhlippa.client.storage.LocalDatabase;
 import com.cuhlippa.ui.utils.ClipboardItemRenderer;
 import com.cuhlippa.ui.utils.ExportImportDialog;
@@ -31,8 +32,9 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class ClipboardUI extends JFrame implements ClipboardListener {
     private static final String TEXT_CARD = "TEXT";
@@ -41,12 +43,12 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
     private static final int DETAIL_AREA_COLS = 40;
     private static final int PREFERRED_WINDOW_WIDTH = 800;
     private static final int PREFERRED_WINDOW_HEIGHT = 600;
+    private static final int LIST_CELL_PADDING = 11;
 
     private final transient LocalDatabase db;
     private final transient Settings settings;
-    private DefaultListModel<ClipboardItem> listModel;
+    private PagedClipboardListModel listModel;
     private JList<ClipboardItem> itemList;
-    private transient List<ClipboardItem> allItems;
     private JTextArea detailArea;
     private JLabel imageLabel;
     private JLabel statusBar;
@@ -57,6 +59,8 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
     private String demoDeviceName = null;
     private transient com.cuhlippa.client.clipboard.DemoClipboardManager demoClipboardManager = null;
 
+    private transient Runnable onFirstPaint;
+
     public ClipboardUI(LocalDatabase db, Settings settings) {
         super("Cuhlippa");
         this.db = db;
@@ -89,6 +93,24 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
         }
     }
 
+    /**
+     * Run the given action once, on the event thread, right after the window
+     * is first painted
+     */
+    public void setOnFirstPaint(Runnable onFirstPaint) {
+        this.onFirstPaint = onFirstPaint;
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        Runnable action = onFirstPaint;
+        if (action != null) {
+            onFirstPaint = null;
+            action.run();
+        }
+    }
+
     /**
      * Set the demo clipboard manager for demo mode
      */
@@ -97,9 +119,10 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
     }
 
     private void initializeComponents() {
-        listModel = new DefaultListModel<>();
+        listModel = new PagedClipboardListModel(db);
         itemList = new JList<>(listModel);
         itemList.setCellRenderer(new ClipboardItemRenderer(settings));
+        updateListCellHeight();
 
         detailArea = new JTextArea(DETAIL_AREA_ROWS, DETAIL_AREA_COLS);
         detailArea.setLineWrap(true);
@@ -164,24 +187,22 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
     }
 
     private void filterItems() {
-        String query = searchField.getText().toLowerCase().trim();
-        listModel.clear();
-
-        if (query.isEmpty()) {
-            allItems.forEach(listModel::addElement);
-        } else {
-            allItems.stream()
-                    .filter(item -> matchesSearch(item, query))
-                    .forEach(listModel::addElement);
-        }
-
-        showStatusMessage("Found " + listModel.size() + " items");
+        // Matching happens in the database; only the first page of results is loaded here
+        // Results arrive later, and a search typed past in the meantime is never shown
+        listModel.setFilter(HistoryFilter.search(searchField.getText())).thenAccept(shown -> {
+            if (Boolean.TRUE.equals(shown)) {
+                showStatusMessage("Found " + listModel.getSize() + (listModel.hasMore() ? "+" : "") + " items");
+            }
+        });
     }
 
-    private boolean matchesSearch(ClipboardItem item, String query) {
-        String content = new String(item.getContent()).toLowerCase();
-        return content.contains(query) ||
-                item.getType().toString().toLowerCase().contains(query);
+    /**
+     * The paged model can only avoid touching every row if the list never has
+     * to measure them, so all rows share the height of a thumbnail row.
+     */
+    private void updateListCellHeight() {
+        int textHeight = itemList.getFontMetrics(itemList.getFont()).getHeight();
+        itemList.setFixedCellHeight(Math.max(settings.getThumbnailSize(), textHeight) + LIST_CELL_PADDING);
     }
 
     private void configureEventListeners() {
@@ -200,10 +221,11 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
     }
 
     private void loadItems() {
-        allItems = db.getAllItems();
-        listModel.clear();
-        allItems.forEach(listModel::addElement);
-        searchField.setText("");
+        if (searchField.getText().isEmpty()) {
+            listModel.setFilter(HistoryFilter.all());
+        } else {
+            searchField.setText(""); // Triggers filterItems, which reloads unfiltered
+        }
     }
 
     private void showSelectedItemDetail() {
@@ -235,29 +257,66 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
         imageLabel.setIcon(null);
     }
 
+    /**
+     * Content is loaded on the database's read threads; it is only shown if
+     * the item is still selected when it arrives
+     */
+    private boolean isStillSelected(ClipboardItem item) {
+        ClipboardItem selected = itemList.getSelectedValue();
+        return selected != null && selected.getHash().equals(item.getHash());
+    }
+
     private void displayTextContent(ClipboardItem item) {
-        detailArea.setText(new String(item.getContent()));
+        clearItemDisplay();
         showCard(TEXT_CARD);
+        db.async().loadContent(item, String::new)
+                .whenCompleteAsync((text, e) -> {
+                    if (!isStillSelected(item)) {
+                        return;
+                    }
+                    if (e != null) {
+                        detailArea.setText("Cannot display this item");
+                        UserFriendlyErrors.logError("Item display failed", "Error loading item: " + e.getMessage());
+                        return;
+                    }
+                    detailArea.setText(text);
+                    detailArea.setCaretPosition(0);
+                }, SwingUtilities::invokeLater);
     }
 
     private void displayImageContent(ClipboardItem item) {
-        try {
-            ImageIcon icon = ImageUtils.createScaledImageIcon(item.getContent());
-            imageLabel.setIcon(icon);
-            showCard(IMAGE_CARD);
-        } catch (Exception e) {
-            detailArea.setText("Cannot display this image");
-            UserFriendlyErrors.logError("Image display failed", "Error loading image: " + e.getMessage());
-            showCard(TEXT_CARD);
-        }
+        clearItemDisplay();
+        showCard(IMAGE_CARD);
+        db.async().loadContent(item, content -> {
+                    try {
+                        return ImageUtils.createScaledImageIcon(content);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .whenCompleteAsync((icon, e) -> {
+                    if (!isStillSelected(item)) {
+                        return;
+                    }
+                    if (e != null) {
+                        detailArea.setText("Cannot display this image");
+                        UserFriendlyErrors.logError("Image display failed", "Error loading image: " + e.getMessage());
+                        showCard(TEXT_CARD);
+                        return;
+                    }
+                    imageLabel.setIcon(icon);
+                }, SwingUtilities::invokeLater);
     }
 
     @Override
     public void onClipboardItemAdded(ClipboardItem item) {
         SwingUtilities.invokeLater(() -> {
-            allItems.add(0, item);
-            listModel.add(0, item);
-            itemList.setSelectedIndex(0);
+            // The item is already stored, so re-reading the first page picks it up
+            listModel.reload().thenAccept(shown -> {
+                if (Boolean.TRUE.equals(shown)) {
+                    itemList.setSelectedIndex(0);
+                }
+            });
         });
     }
 
@@ -332,9 +391,25 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
             TagEditDialog dialog = new TagEditDialog(this, selected, db);
             dialog.setModal(true);
             dialog.setVisible(true);
-            // Dialog is modal, so this code runs after it's closed
-            loadItems();
-            showStatusMessage("Tags updated for item");
+            // Dialog is modal, so this code runs after it's closed, while the
+            // edit, already shown on the item, may still be on its way to the database
+            CompletableFuture<Boolean> saved = dialog.getSaveResult();
+            if (saved == null) {
+                return;
+            }
+            itemList.repaint();
+            saved.whenCompleteAsync((updated, e) -> {
+                if (Boolean.TRUE.equals(updated)) {
+                    listModel.applyChanges();
+                    showStatusMessage("Tags updated for item");
+                } else {
+                    // The dialog has already put the item's old tags back
+                    itemList.repaint();
+                    showSelectedItemDetail();
+                    showStatusMessage("Could not update tags");
+                    UserFriendlyErrors.logError("Tag update failed", "Failed to save tags and category to database");
+                }
+            }, SwingUtilities::invokeLater);
         }
     }
 
@@ -355,23 +430,26 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
                     JOptionPane.YES_NO_OPTION);
 
             if (result == JOptionPane.YES_OPTION) {
-                boolean deleted = db.deleteItemByHash(selected.getHash());
-                if (deleted) {
-                    allItems.remove(selected);
-                    listModel.removeElement(selected);
-                    clearItemDisplay();
-                    showStatusMessage("Deleted item.");
-                } else {
-                    showStatusMessage("Could not delete item.");
-                    UserFriendlyErrors.logError("Delete operation failed",
-                            "Failed to delete clipboard item from database");
-                }
+                // Removed from the list right away and put back if the delete fails
+                listModel.removeItem(selected);
+                clearItemDisplay();
+                db.async().deleteItemByHash(selected.getHash())
+                        .whenCompleteAsync((deleted, e) -> {
+                            if (Boolean.TRUE.equals(deleted)) {
+                                showStatusMessage("Deleted item.");
+                            } else {
+                                listModel.reload();
+                                showStatusMessage("Could not delete item.");
+                                UserFriendlyErrors.logError("Delete operation failed",
+                                        "Failed to delete clipboard item from database");
+                            }
+                        }, SwingUtilities::invokeLater);
             }
         }
     }
 
     private void deleteAllItems() {
-        if (allItems.isEmpty()) {
+        if (listModel.isEmpty()) {
             showStatusMessage("No items to delete.");
             return;
         }
@@ -384,51 +462,74 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
                 JOptionPane.WARNING_MESSAGE);
 
         if (result == JOptionPane.YES_OPTION) {
-            boolean allDeleted = db.deleteAllItems();
-            if (allDeleted) {
-                allItems.clear();
-                listModel.clear();
-                clearItemDisplay();
-                showStatusMessage("Deleted all items.");
-            } else {
-                showStatusMessage("Could not delete all items");
-                UserFriendlyErrors.logError("Clear all operation failed", "Failed to delete all items from database");
-            }
+            listModel.clear();
+            clearItemDisplay();
+            showStatusMessage("Deleting all items...");
+            db.async().deleteAllItems()
+                    .whenCompleteAsync((allDeleted, e) -> {
+                        // Also brings back the items if the delete failed
+                        listModel.reload();
+                        if (Boolean.TRUE.equals(allDeleted)) {
+                            showStatusMessage("Deleted all items.");
+                        } else {
+                            showStatusMessage("Could not delete all items");
+                            UserFriendlyErrors.logError("Clear all operation failed",
+                                    "Failed to delete all items from database");
+                        }
+                    }, SwingUtilities::invokeLater);
         }
     }
 
+    /**
+     * The content is loaded and decoded on the database's read threads; only
+     * setting the system clipboard happens on the event thread
+     */
     private void copyItemToClipboard(ClipboardItem item) {
-        Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+        db.async().loadContent(item, content -> createTransferable(item, content))
+                .whenCompleteAsync((transferable, e) -> {
+                    if (e != null) {
+                        showStatusMessage("Could not copy item to clipboard");
+                        UserFriendlyErrors.logError("Copy failed", "Error loading item: " + e.getMessage());
+                        return;
+                    }
+                    switch (item.getType()) {
+                        case TEXT -> showStatusMessage("Text copied to clipboard");
+                        case IMAGE -> showStatusMessage("Image copied to clipboard");
+                        case FILE_PATH -> showStatusMessage("File path copied to clipboard");
+                    }
+                    if (transferable != null) {
+                        Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+                        clipboard.setContents(transferable, null);
+                        db.recordAccess(item);
+                        System.out.println("Copied item back to system clipboard: " + item.getType());
+                    }
+                }, SwingUtilities::invokeLater);
+    }
 
+    private static Transferable createTransferable(ClipboardItem item, byte[] content) {
         try {
             Transferable transferable = null;
             switch (item.getType()) {
                 case TEXT:
-                    transferable = new StringSelection(new String(item.getContent()));
-                    showStatusMessage("Text copied to clipboard");
+                    transferable = new StringSelection(new String(content));
                     break;
                 case IMAGE:
-                    ByteArrayInputStream bais = new ByteArrayInputStream(item.getContent());
+                    ByteArrayInputStream bais = new ByteArrayInputStream(content);
                     BufferedImage img = ImageIO.read(bais);
                     if (img != null)
                         transferable = new ImageSelection(img);
-                    showStatusMessage("Image copied to clipboard");
                     break;
                 case FILE_PATH:
-                    String path = new String(item.getContent());
+                    String path = new String(content);
                     File file = new File(path);
                     if (file.exists()) {
                         transferable = new FileTransferable(Collections.singletonList(file));
                     }
-                    showStatusMessage("File path copied to clipboard");
                     break;
             }
-            if (transferable != null) {
-                clipboard.setContents(transferable, null);
-                System.out.println("Copied item back to system clipboard: " + item.getType());
-            }
+            return transferable;
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -580,6 +681,7 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
         new SettingsDialog(this, settings).setVisible(true);
         applyTheme();
         itemList.setCellRenderer(new ClipboardItemRenderer(settings));
+        updateListCellHeight();
         repaint();
     }
 
@@ -593,20 +695,21 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
     private void toggleItemPin() {
         ClipboardItem selected = itemList.getSelectedValue();
         if (selected != null) {
-            boolean success = db.toggleItemPin(selected.getHash());
-            if (success) {
-                // Update the item's pin status in memory
-                selected.setPinned(!selected.isPinned());
-
-                String action = selected.isPinned() ? "pinned" : "unpinned";
-                showStatusMessage("Item " + action + " successfully");
-
-                // Refresh the list to show updated pin status
-                itemList.repaint();
-            } else {
-                showStatusMessage("Could not update pin status");
-                UserFriendlyErrors.logError("Pin toggle failed", "Failed to toggle pin status in database");
-            }
+            // Shown as toggled right away and flipped back if the update fails
+            boolean pinned = !selected.isPinned();
+            selected.setPinned(pinned);
+            itemList.repaint();
+            db.async().toggleItemPin(selected.getHash())
+                    .whenCompleteAsync((success, e) -> {
+                        if (Boolean.TRUE.equals(success)) {
+                            showStatusMessage("Item " + (pinned ? "pinned" : "unpinned") + " successfully");
+                        } else {
+                            selected.setPinned(!pinned);
+                            itemList.repaint();
+                            showStatusMessage("Could not update pin status");
+                            UserFriendlyErrors.logError("Pin toggle failed", "Failed to toggle pin status in database");
+                        }
+                    }, SwingUtilities::invokeLater);
         }
     }
 
@@ -721,11 +824,13 @@ public class ClipboardUI extends JFrame implements ClipboardListener {
      * Simulate pasting from virtual clipboard in demo mode
      */
     private void simulatePaste() {
-        if (demoMode && !allItems.isEmpty()) {
-            ClipboardItem latestItem = allItems.get(0);
+        // The first row is null while its page is still being fetched
+        ClipboardItem latestItem = demoMode && !listModel.isEmpty() ? listModel.getElementAt(0) : null;
+        if (latestItem != null) {
             if (latestItem.getType() == com.cuhlippa.client.clipboard.ItemType.TEXT) {
-                String content = new String(latestItem.getContent());
-                showStatusMessage("📋 [" + demoDeviceName + "] Pasted: " + content);
+                db.async().loadContent(latestItem, String::new)
+                        .thenAcceptAsync(content -> showStatusMessage("📋 [" + demoDeviceName + "] Pasted: " + content),
+                                SwingUtilities::invokeLater);
             } else {
                 showStatusMessage(
                         "📋 [" + demoDeviceName + "] Pasted " + latestItem.getType().toString().toLowerCase());
@@ -0,0 +1,381 @@
+package com.cuhlippa.ui;
+
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+
+import com.cuhlippa.client.clipboard.ClipboardItem;
+import com.cuhlippa.client.storage.ChangeSet;
+import com.cuhlippa.client.storage.HistoryFilter;
+import com.cuhlippa.client.storage.HistoryPage;
+import com.cuhlippa.client.storage.LocalDatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * List model that pages clipboard history in from the database as the JList
+ * scrolls. Only the page cursors are kept for every page seen so far; item
+ * contents are held for a handful of recently viewed pages and re-fetched by
+ * cursor when the user scrolls back to an evicted page.
+ *
+ * Pages are read on the database's async read threads and applied on the
+ * event thread; rows of a page still being fetched show as null. Every
+ * reload starts a new generation, and results of an older generation, such
+ * as a search the user has since typed past, are dropped when they arrive.
+ *
+ * Edits made after loading are picked up from the database's change log, so
+ * a tag edit re-reads one item instead of the whole list.
+ */
+public class PagedClipboardListModel extends AbstractListModel<ClipboardItem> {
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_CACHED_PAGES = 5;
+    // More changes than this are cheaper to pick up by reloading
+    private static final int MAX_INCREMENTAL_CHANGES = 200;
+
+    private final transient LocalDatabase db;
+    private transient HistoryFilter filter = HistoryFilter.all();
+    private final transient List<PageInfo> pages = new ArrayList<>();
+    private final transient Map<Integer, List<ClipboardItem>> cachedPages =
+            new LinkedHashMap<>(MAX_CACHED_PAGES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, List<ClipboardItem>> eldest) {
+                    return size() > MAX_CACHED_PAGES;
+                }
+            };
+    private final transient Set<Integer> pagesLoading = new HashSet<>();
+    private int size = 0;
+    private long nextCursor = HistoryPage.FIRST_PAGE;
+    private boolean hasMore = false;
+    private boolean nextPageLoading = false;
+    private long newestId = 0;
+    private long changeSeq = 0;
+    private long generation = 0;
+
+    private static class PageInfo {
+        final long cursor;
+        int size;
+
+        PageInfo(long cursor, int size) {
+            this.cursor = cursor;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Items re-read for a batch of changes, or a note that the batch is
+     * picked up by reloading instead
+     */
+    private static class ChangedItems {
+        final ChangeSet changes;
+        final boolean reloadNeeded;
+        final Map<String, CompletableFuture<ClipboardItem>> items = new HashMap<>();
+
+        ChangedItems(ChangeSet changes, boolean reloadNeeded) {
+            this.changes = changes;
+            this.reloadNeeded = reloadNeeded;
+        }
+    }
+
+    public PagedClipboardListModel(LocalDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Switch to another filter. Completes as {@link #reload()} does.
+     */
+    public CompletableFuture<Boolean> setFilter(HistoryFilter filter) {
+        this.filter = filter;
+        return reload();
+    }
+
+    /**
+     * Drop everything and load the first page again. The returned future
+     * completes on the event thread, with true once the first page is shown
+     * and false if the load failed or a later reload superseded it.
+     */
+    public CompletableFuture<Boolean> reload() {
+        clear();
+        long loadGeneration = generation;
+        HistoryFilter loadFilter = filter;
+        CompletableFuture<Boolean> shown = new CompletableFuture<>();
+        // The change sequence is read before the page, so a change made meanwhile is applied again rather than missed
+        db.async().getChangeSeq()
+                .thenCompose(seq -> db.async().getItemsPage(HistoryPage.FIRST_PAGE, PAGE_SIZE, loadFilter)
+                        .thenApply(page -> Map.entry(seq, page)))
+                .whenCompleteAsync((loaded, e) -> {
+                    boolean current = loadGeneration == generation;
+                    if (e != null) {
+                        if (current) {
+                            System.err.println("Failed to load clipboard history: " + e.getMessage());
+                        }
+                    } else if (current) {
+                        changeSeq = loaded.getKey();
+                        appendPage(HistoryPage.FIRST_PAGE, loaded.getValue());
+                    }
+                    shown.complete(e == null && current);
+                }, SwingUtilities::invokeLater);
+        return shown;
+    }
+
+    /**
+     * Empty the list without loading anything, e.g. while a delete of
+     * everything is still running; reload() fills it again. Loads still in
+     * flight are dropped when they arrive.
+     */
+    public void clear() {
+        generation++;
+        int oldSize = size;
+        pages.clear();
+        cachedPages.clear();
+        pagesLoading.clear();
+        size = 0;
+        nextCursor = HistoryPage.FIRST_PAGE;
+        hasMore = false;
+        nextPageLoading = false;
+        newestId = 0;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+    }
+
+    /**
+     * Whether older items exist beyond what has been paged in so far
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public ClipboardItem getElementAt(int index) {
+        int pageIndex = 0;
+        int offset = index;
+        while (pageIndex < pages.size() && offset >= pages.get(pageIndex).size) {
+            offset -= pages.get(pageIndex).size;
+            pageIndex++;
+        }
+        if (pageIndex >= pages.size()) {
+            return null;
+        }
+
+        if (hasMore && pageIndex == pages.size() - 1) {
+            loadNextPage();
+        }
+
+        List<ClipboardItem> items = cachedPages.get(pageIndex);
+        if (items == null) {
+            fetchPage(pageIndex);
+            return null;
+        }
+        return offset < items.size() ? items.get(offset) : null;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove an item that was deleted from storage, without re-querying
+     */
+    public void removeItem(ClipboardItem item) {
+        removeItem(item.getHash());
+    }
+
+    private void removeItem(String hash) {
+        int start = 0;
+        for (int pageIndex = 0; pageIndex < pages.size(); pageIndex++) {
+            List<ClipboardItem> items = cachedPages.get(pageIndex);
+            int position = indexOf(items, hash);
+            if (position >= 0) {
+                items.remove(position);
+                pages.get(pageIndex).size--;
+                size--;
+                fireIntervalRemoved(this, start + position, start + position);
+                return;
+            }
+            start += pages.get(pageIndex).size;
+        }
+    }
+
+    /**
+     * Swap in the current state of an item that was edited in storage. Returns
+     * false if it is not among the loaded items.
+     */
+    private boolean replaceItem(ClipboardItem item) {
+        int start = 0;
+        for (int pageIndex = 0; pageIndex < pages.size(); pageIndex++) {
+            List<ClipboardItem> items = cachedPages.get(pageIndex);
+            int position = indexOf(items, item.getHash());
+            if (position >= 0) {
+                items.set(position, item);
+                fireContentsChanged(this, start + position, start + position);
+                return true;
+            }
+            start += pages.get(pageIndex).size;
+        }
+        return false;
+    }
+
+    private static int indexOf(List<ClipboardItem> items, String hash) {
+        if (items != null) {
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i).getHash().equals(hash)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Apply what changed in storage since the items were loaded: deleted
+     * items are removed and edited ones re-read. Reloads instead when a
+     * change can add items or move them in or out of the current filter, or
+     * when there are too many changes to be worth applying one by one.
+     */
+    public void applyChanges() {
+        long loadGeneration = generation;
+        boolean metadataFilter = filter.dependsOnMetadata();
+        db.async().changesSince(changeSeq, MAX_INCREMENTAL_CHANGES)
+                .thenCompose(changes -> readChangedItems(changes, metadataFilter))
+                .whenCompleteAsync((changed, e) -> {
+                    if (loadGeneration != generation) {
+                        return;
+                    }
+                    if (e != null) {
+                        System.err.println("Failed to read clipboard history changes: " + e.getMessage());
+                    } else if (changed.changes.getLastSeq() >= changeSeq) {
+                        // An older batch finishing after a newer one would put back stale items
+                        applyChanges(changed);
+                    }
+                }, SwingUtilities::invokeLater);
+    }
+
+    private CompletableFuture<ChangedItems> readChangedItems(ChangeSet changes, boolean metadataFilter) {
+        if (changes.isResetRequired() || changes.hasMore()) {
+            return CompletableFuture.completedFuture(new ChangedItems(changes, true));
+        }
+        ChangedItems changed = new ChangedItems(changes, false);
+        for (ChangeSet.Change change : changes.getChanges()) {
+            if (change.getType() == ChangeSet.ChangeType.DELETE) {
+                continue;
+            }
+            if (change.getType() == ChangeSet.ChangeType.INSERT || metadataFilter) {
+                return CompletableFuture.completedFuture(new ChangedItems(changes, true));
+            }
+            changed.items.computeIfAbsent(change.getHash(), hash -> db.async().getItemByHash(hash));
+        }
+        return CompletableFuture.allOf(changed.items.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> changed);
+    }
+
+    private void applyChanges(ChangedItems changed) {
+        if (changed.reloadNeeded) {
+            reload();
+            return;
+        }
+        for (ChangeSet.Change change : changed.changes.getChanges()) {
+            if (change.getType() == ChangeSet.ChangeType.DELETE) {
+                removeItem(change.getHash());
+                continue;
+            }
+            ClipboardItem item = changed.items.get(change.getHash()).join();
+            if (item == null) {
+                removeItem(change.getHash());
+            } else if (!replaceItem(item) && isNewerThanLoaded(item)) {
+                // Inserted and then edited, so logged as an update
+                reload();
+                return;
+            }
+            // Otherwise it is on a page not held in memory, which is re-read when needed
+        }
+        changeSeq = changed.changes.getLastSeq();
+    }
+
+    private boolean isNewerThanLoaded(ClipboardItem item) {
+        return size == 0 || item.getId() > newestId;
+    }
+
+    /**
+     * Re-read a page evicted from the cache; its rows show as null meanwhile
+     */
+    private void fetchPage(int pageIndex) {
+        if (!pagesLoading.add(pageIndex)) {
+            return;
+        }
+        long loadGeneration = generation;
+        PageInfo info = pages.get(pageIndex);
+        db.async().getItemsPage(info.cursor, info.size, filter)
+                .whenCompleteAsync((page, e) -> {
+                    if (loadGeneration != generation) {
+                        return;
+                    }
+                    pagesLoading.remove(pageIndex);
+                    if (e != null) {
+                        System.err.println("Failed to load clipboard history: " + e.getMessage());
+                        return;
+                    }
+                    cachedPages.put(pageIndex, new ArrayList<>(page.getItems()));
+                    int start = 0;
+                    for (int i = 0; i < pageIndex; i++) {
+                        start += pages.get(i).size;
+                    }
+                    if (info.size > 0) {
+                        fireContentsChanged(this, start, start + info.size - 1);
+                    }
+                }, SwingUtilities::invokeLater);
+    }
+
+    private void loadNextPage() {
+        if (nextPageLoading) {
+            return;
+        }
+        // getElementAt runs while painting, so the model only grows once the page arrives
+        nextPageLoading = true;
+        long loadGeneration = generation;
+        long cursor = nextCursor;
+        db.async().getItemsPage(cursor, PAGE_SIZE, filter)
+                .whenCompleteAsync((page, e) -> {
+                    if (loadGeneration != generation) {
+                        return;
+                    }
+                    nextPageLoading = false;
+                    if (e != null) {
+                        // Stop paging rather than retry on every repaint
+                        hasMore = false;
+                        System.err.println("Failed to load clipboard history: " + e.getMessage());
+                        return;
+                    }
+                    appendPage(cursor, page);
+                }, SwingUtilities::invokeLater);
+    }
+
+    private void appendPage(long cursor, HistoryPage page) {
+        List<ClipboardItem> items = new ArrayList<>(page.getItems());
+        nextCursor = page.getNextCursor();
+        hasMore = page.hasMore();
+        if (items.isEmpty()) {
+            return;
+        }
+
+        if (pages.isEmpty()) {
+            newestId = items.get(0).getId();
+        }
+        int pageIndex = pages.size();
+        pages.add(new PageInfo(cursor, items.size()));
+        cachedPages.put(pageIndex, items);
+        int firstIndex = size;
+        size += items.size();
+        fireIntervalAdded(this, firstIndex, size - 1);
+    }
+}
@@ -26,13 +26,24 @@ public class ClipboardItemRenderer extends JLabel implements ListCellRenderer<Cl
         ));
     }    @Override
     public Component getListCellRendererComponent(JList<? extends ClipboardItem> list, ClipboardItem item, int index, boolean isSelected, boolean cellHashFocus) {        
+        if (item == null) {
+            // Row of a page that is still being fetched
+            setIcon(null);
+            setText(" ");
+            setBackground(list.getBackground());
+            setForeground(list.getForeground());
+            return this;
+        }
+
         try {
             String displayText = "";
             
             if (item.getType() == ItemType.IMAGE) {
                 displayText = "[IMAGE]";
                 int size = settings.getThumbnailSize();
-                setIcon(ImageUtils.createScaledImageIcon(item.getContent(), size, size));
+                // Only the stored thumbnail is drawn, so painting a row never loads or decodes the full image
+                byte[] thumbnail = item.getThumbnail();
+                setIcon(thumbnail != null ? ImageUtils.createScaledImageIcon(thumbnail, size, size) : null);
             } else if (item.getType() == ItemType.TEXT) {
                 setIcon(null);
                 displayText = item.toString();
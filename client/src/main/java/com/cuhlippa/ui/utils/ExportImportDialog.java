@@ -4,6 +4,8 @@ import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.io.File;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.cuhlippa.client.export.*;
 import com.cuhlippa.client.storage.LocalDatabase;
@@ -33,11 +35,11 @@ public class ExportImportDialog extends JDialog {
     }    private void initializeComponents() {
         categoryFilter = new JComboBox<>();
         categoryFilter.addItem("All Categories");
-        db.getAllCategories().forEach(categoryFilter::addItem);
+        addWhenLoaded(categoryFilter, db.async().getAllCategories());
 
         tagFilter = new JComboBox<>();
         tagFilter.addItem("All Tags");
-        db.getAllTags().forEach(tagFilter::addItem);
+        addWhenLoaded(tagFilter, db.async().getAllTags());
 
         includeImages = new JCheckBox("Include Images", true);
         includeText = new JCheckBox("Include Text", true);
@@ -48,6 +50,19 @@ public class ExportImportDialog extends JDialog {
         mergeTags = new JCheckBox("Merge Tags", true);
     }
 
+    /**
+     * Filter values are read off the event thread and added once they arrive
+     */
+    private static void addWhenLoaded(JComboBox<String> combo, CompletableFuture<Set<String>> values) {
+        values.whenCompleteAsync((loaded, e) -> {
+            if (e != null) {
+                System.err.println("Failed to load filter values: " + e.getMessage());
+                return;
+            }
+            loaded.forEach(combo::addItem);
+        }, SwingUtilities::invokeLater);
+    }
+
     private void setupLayout() {
         setLayout(new BorderLayout());
 
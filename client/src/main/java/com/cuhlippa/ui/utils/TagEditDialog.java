@@ -4,6 +4,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
 
 import com.cuhlippa.client.clipboard.ClipboardItem;
 import com.cuhlippa.client.storage.LocalDatabase;
@@ -15,6 +16,7 @@ public class TagEditDialog extends JDialog {
     private JComboBox<String> categoryCombo;
     private JPanel tagsPanel;
     private final Set<String> currentTags;
+    private transient CompletableFuture<Boolean> saveResult;
 
     public TagEditDialog(JFrame parent, ClipboardItem item, LocalDatabase db) {
         super(parent, "Edit Tags and Category");
@@ -28,15 +30,20 @@ public class TagEditDialog extends JDialog {
         pack();
         setLocationRelativeTo(parent);
     }    private void initializeComponents() {
-        Set<String> categories = db.getAllCategories();
-        categories.add("General");
-        categories.add("Work");
-        categories.add("Personal");
-        categories.add("Code");
-        categories.add("Images");
-
-        categoryCombo = new JComboBox<>(categories.toArray(new String[0]));
+        categoryCombo = new JComboBox<>(new String[] {"General", "Work", "Personal", "Code", "Images"});
         categoryCombo.setEditable(true);
+        // Stored categories are read off the event thread and added once they arrive
+        db.async().getAllCategories()
+                .whenCompleteAsync((categories, e) -> {
+                    if (e != null) {
+                        System.err.println("Failed to load categories: " + e.getMessage());
+                        return;
+                    }
+                    DefaultComboBoxModel<String> model = (DefaultComboBoxModel<String>) categoryCombo.getModel();
+                    categories.stream()
+                            .filter(category -> model.getIndexOf(category) < 0)
+                            .forEach(model::addElement);
+                }, SwingUtilities::invokeLater);
 
         tagField = new JTextField(20);
 
@@ -153,9 +160,29 @@ public class TagEditDialog extends JDialog {
     }
 
     private void saveChanges() {
+        String oldCategory = item.getCategory();
+        Set<String> oldTags = new HashSet<>(item.getTags());
         item.setCategory((String) categoryCombo.getSelectedItem());
         item.setTags(currentTags);
-        db.saveItem(item);
+        // Closes at once; the item keeps its new tags unless the save fails
+        saveResult = db.async().updateTagsAndCategory(item)
+                .handleAsync((updated, e) -> {
+                    boolean succeeded = e == null && Boolean.TRUE.equals(updated);
+                    if (!succeeded) {
+                        item.setCategory(oldCategory);
+                        item.setTags(oldTags);
+                    }
+                    return succeeded;
+                }, SwingUtilities::invokeLater);
         dispose();
     }
+
+    /**
+     * Completes on the event thread with whether the edit was saved, having
+     * restored the item's old tags and category if not. Null if the dialog
+     * was cancelled.
+     */
+    public CompletableFuture<Boolean> getSaveResult() {
+        return saveResult;
+    }
 }
\ No newline at end of file